@@ -0,0 +1,60 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Compares the decoding of a WebSocket frame into the events of one room, between parsing the whole frame into a Gson tree (as
+ * was done before {@link ChatEventDecoder}) and the streaming {@link ChatEventDecoder}.
+ * @author Tunaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatEventDecoderBenchmark {
+
+	@Param({ "frame-single-room.json", "frame-multi-room.json", "frame-heartbeat.json" })
+	private String fixture;
+
+	private int roomId = 139;
+	private String frame;
+
+	@Setup
+	public void setup() {
+		frame = Fixtures.read(fixture);
+	}
+
+	@Benchmark
+	public void tree(Blackhole blackhole) {
+		JsonObject jsonObject = new JsonParser().parse(frame).getAsJsonObject();
+		jsonObject.entrySet().stream().filter(e -> e.getKey().equals("r" + roomId)).map(Map.Entry::getValue).map(JsonElement::getAsJsonObject).map(o -> o.get("e")).filter(Objects::nonNull).map(JsonElement::getAsJsonArray).findFirst().ifPresent(blackhole::consume);
+	}
+
+	@Benchmark
+	public void streaming(Blackhole blackhole) throws IOException {
+		ChatEventDecoder.decode(frame, id -> id == roomId, (events, id) -> blackhole.consume(events));
+	}
+
+}
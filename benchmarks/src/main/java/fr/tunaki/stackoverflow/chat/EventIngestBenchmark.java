@@ -0,0 +1,104 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import fr.tunaki.stackoverflow.chat.event.Event;
+import fr.tunaki.stackoverflow.chat.event.EventType;
+import fr.tunaki.stackoverflow.chat.event.Events;
+
+/**
+ * Measures the ingestion of the chat events of a WebSocket frame by a {@link Room}, as a whole (decoding of the frame, mapping of
+ * the events and dispatch to a listener), and step by step: the mapping of the raw events with {@link Events#fromJsonData}, and the
+ * lookup of the type of each event with {@link EventType#fromEvent}.
+ * <p>The room is joined on a local {@link ChatServerSimulator}. The ids of the events are removed from the frames, so that the room
+ * handles the same frame again at each invocation instead of discarding its events as already handled.
+ * @author Tunaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventIngestBenchmark {
+
+	private static final int ROOM_ID = 139;
+
+	@Param({ "frame-single-room.json", "frame-multi-room.json", "frame-mixed-events.json" })
+	private String fixture;
+
+	private ChatServerSimulator simulator;
+	private StackExchangeClient client;
+	private Room room;
+
+	private String frame;
+	private JsonArray events;
+	private List<Event> mappedEvents;
+
+	@Setup
+	public void setup() throws IOException {
+		simulator = new ChatServerSimulator();
+		client = new StackExchangeClient("benchmark@example.com", "password", new PooledHttpClient(), simulator.getEndpoints());
+		room = client.joinRoom(ChatHost.STACK_OVERFLOW, ROOM_ID);
+		room.addEventListener(EventType.MESSAGE_POSTED, event -> { }, 1024, OverflowPolicy.DROP_OLDEST);
+		JsonObject frameObject = new JsonParser().parse(Fixtures.read(fixture)).getAsJsonObject();
+		for (Map.Entry<String, JsonElement> entry : frameObject.entrySet()) {
+			JsonElement roomEvents = entry.getValue().getAsJsonObject().get("e");
+			if (roomEvents == null) continue;
+			for (JsonElement event : roomEvents.getAsJsonArray()) {
+				event.getAsJsonObject().remove("id");
+			}
+			if (entry.getKey().equals("r" + ROOM_ID)) {
+				events = roomEvents.getAsJsonArray();
+			}
+		}
+		frame = frameObject.toString();
+		mappedEvents = Events.fromJsonData(events, room);
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.close();
+		simulator.close();
+	}
+
+	@Benchmark
+	public void handleChatEvents() throws IOException {
+		ChatEventDecoder.decode(frame, id -> id == ROOM_ID, (roomEvents, id) -> room.handleChatEvents(roomEvents));
+	}
+
+	@Benchmark
+	public List<Event> fromJsonData() {
+		return Events.fromJsonData(events, room);
+	}
+
+	@Benchmark
+	public void fromEvent(Blackhole blackhole) {
+		for (Event event : mappedEvents) {
+			blackhole.consume(EventType.fromEvent(event));
+		}
+	}
+
+}
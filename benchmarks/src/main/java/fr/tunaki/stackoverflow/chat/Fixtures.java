@@ -0,0 +1,34 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Access to the payloads captured from the chat servers, used as input of the benchmarks.
+ * @author Tunaki
+ */
+final class Fixtures {
+
+	private Fixtures() { }
+
+	static String read(String name) {
+		try (InputStream is = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+			if (is == null) {
+				throw new IllegalArgumentException("No fixture named " + name);
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the reading of a message from its history page, as done by <code>Room.getMessage</code>: with the parsing of the HTML
+ * page, and the extraction of the data from the already parsed page. The pages are of a message that was never edited, and of a
+ * starred and pinned message that was edited several times.
+ * @author Tunaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessagePageBenchmark {
+
+	@Param({ "message-history.html", "message-history-edited.html" })
+	private String fixture;
+
+	private String html;
+	private Document document;
+
+	@Setup
+	public void setup() {
+		html = Fixtures.read(fixture);
+		document = Jsoup.parse(html);
+	}
+
+	@Benchmark
+	public MessageHistoryPage parseAndRead() {
+		return MessageHistoryPage.parse(Jsoup.parse(html));
+	}
+
+	@Benchmark
+	public MessageHistoryPage read() {
+		return MessageHistoryPage.parse(document);
+	}
+
+}
@@ -0,0 +1,48 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the splitting of realistic long messages into chat messages, as done before sending them: plain prose, and prose mixed
+ * with Markdown links to questions and inline code.
+ * @author Tunaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessagePartsBenchmark {
+
+	private static final int MAX_CHAT_MESSAGE_LENGTH = 500;
+
+	@Param({ "message-prose.txt", "message-links.txt" })
+	private String fixture;
+
+	private String message;
+
+	@Setup
+	public void setup() {
+		message = Fixtures.read(fixture);
+	}
+
+	@Benchmark
+	public List<String> toParts() {
+		return MessageSplitter.split(message, MAX_CHAT_MESSAGE_LENGTH);
+	}
+
+}
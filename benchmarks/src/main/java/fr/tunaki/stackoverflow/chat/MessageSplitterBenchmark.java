@@ -0,0 +1,100 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the splitting of long messages into chat messages, between the former <code>Room.toParts</code>, which rescanned the
+ * remaining text for links at each part, and the single-pass {@link MessageSplitter}.
+ * <p>The messages are single-line reports of the given size, made of words, Markdown links and inline code.
+ * @author Tunaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageSplitterBenchmark {
+
+	private static final int MAX_CHAT_MESSAGE_LENGTH = 500;
+	private static final Pattern MARKDOWN_LINK_PATTERN = Pattern.compile("\\[(\\\\]|[^\\]])+\\]\\((https?:)?//(\\\\\\)|\\\\\\(|[^\\s)(])+\\)");
+
+	@Param({ "5000", "50000", "500000" })
+	private int size;
+
+	private String message;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		StringBuilder sb = new StringBuilder(size + 64);
+		while (sb.length() < size) {
+			switch (random.nextInt(12)) {
+			case 0: sb.append("[build #").append(random.nextInt(10_000)).append("](https://ci.example.com/builds/").append(random.nextInt(10_000)).append(") "); break;
+			case 1: sb.append("`at fr.tunaki.Example.method(Example.java:").append(random.nextInt(500)).append(")` "); break;
+			default: sb.append("token").append(random.nextInt(1000)).append(' ');
+			}
+		}
+		message = sb.substring(0, size);
+	}
+
+	@Benchmark
+	public List<String> legacy() {
+		return legacyToParts(message, MAX_CHAT_MESSAGE_LENGTH);
+	}
+
+	@Benchmark
+	public List<String> singlePass() {
+		return MessageSplitter.split(message, MAX_CHAT_MESSAGE_LENGTH);
+	}
+
+	private static List<String> legacyToParts(String message, int maxPartLength) {
+		if (message.length() <= maxPartLength || (message.trim().contains("\n") && !message.trim().endsWith("\n"))) {
+			return Arrays.asList(message);
+		}
+		List<String> messages = new ArrayList<>();
+		while (message.length() > maxPartLength) {
+			List<Integer[]> nonBreakingIndexes = new ArrayList<>();
+			Matcher matcher = MARKDOWN_LINK_PATTERN.matcher(message);
+			while (matcher.find()) {
+				nonBreakingIndexes.add(new Integer[] { matcher.start(), matcher.end() });
+			}
+			int breakIndex = message.lastIndexOf(' ', maxPartLength);
+			if (breakIndex < 0) breakIndex = maxPartLength;
+			for (Integer[] bounds : nonBreakingIndexes) {
+				if (bounds[0] < breakIndex && breakIndex < bounds[1]) {
+					breakIndex = bounds[0] - 1;
+					break;
+				}
+			}
+			if (breakIndex < 0) {
+				throw new ChatOperationException("Cannot send message: it is longer than " + maxPartLength + " characters and cannot be broken into adequate parts");
+			}
+			messages.add(message.substring(0, breakIndex));
+			message = message.substring(breakIndex + 1);
+		}
+		if (!message.isEmpty()) {
+			messages.add(message);
+		}
+		return messages;
+	}
+
+}
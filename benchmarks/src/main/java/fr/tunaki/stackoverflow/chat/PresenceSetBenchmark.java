@@ -0,0 +1,96 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the membership checks of the users present in a room, between the boxed <code>HashSet</code> used before
+ * {@link PresenceSet}, a concurrent boxed set, and {@link PresenceSet}. Half of the looked up ids are present. Lookups run on
+ * several threads, as they do from the listeners of a room.
+ * @author Tunaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class PresenceSetBenchmark {
+
+	private static final int LOOKUPS = 1024;
+
+	@Param({ "10", "100", "1000" })
+	private int users;
+
+	private long[] lookups;
+	private Set<Long> hashSet;
+	private Set<Long> concurrentSet;
+	private PresenceSet presenceSet;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		long[] present = random.longs(users, 1, 10_000_000).toArray();
+		hashSet = new HashSet<>();
+		concurrentSet = ConcurrentHashMap.newKeySet();
+		presenceSet = new PresenceSet();
+		for (long userId : present) {
+			hashSet.add(userId);
+			concurrentSet.add(userId);
+			presenceSet.add(userId);
+		}
+		lookups = new long[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++) {
+			lookups[i] = i % 2 == 0 ? present[random.nextInt(users)] : random.nextInt(10_000_000) + 10_000_000L;
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int hashSet() {
+		int count = 0;
+		for (long userId : lookups) {
+			if (hashSet.contains(userId)) count++;
+		}
+		return count;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int concurrentSet() {
+		int count = 0;
+		for (long userId : lookups) {
+			if (concurrentSet.contains(userId)) count++;
+		}
+		return count;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int presenceSet() {
+		int count = 0;
+		for (long userId : lookups) {
+			if (presenceSet.contains(userId)) count++;
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,94 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.tunaki.stackoverflow.chat.event.EventType;
+
+/**
+ * Measures a joined {@link Room} end to end, over HTTP and the WebSocket, against a local {@link ChatServerSimulator}: the delivery of
+ * chat events to a listener, and the retrieval of messages that are not cached.
+ * @author Tunaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulatedRoomBenchmark {
+
+	private static final int ROOM_ID = 1;
+	private static final int FRAMES = 100;
+	private static final int MESSAGES = 5_000;
+
+	private ChatServerSimulator simulator;
+	private StackExchangeClient client;
+	private Room room;
+
+	private final AtomicLong received = new AtomicLong();
+	private List<String> frames;
+	private long firstMessageId;
+	private long nextMessage;
+
+	@Setup
+	public void setup() throws IOException {
+		simulator = new ChatServerSimulator();
+		client = new StackExchangeClient("benchmark@example.com", "password", new PooledHttpClient(), simulator.getEndpoints());
+		room = client.joinRoom(ChatHost.STACK_OVERFLOW, ROOM_ID);
+		room.addEventListener(EventType.MESSAGE_POSTED, event -> received.incrementAndGet());
+		frames = new ArrayList<>();
+		for (int i = 0; i < FRAMES; i++) {
+			frames.add("{\"r" + ROOM_ID + "\":{\"e\":[{\"event_type\":1,\"time_stamp\":1466000000,\"content\":\"message " + i + "\",\"user_id\":2,\"user_name\":\"user2\",\"room_id\":" + ROOM_ID + ",\"message_id\":" + (1_000_000 + i) + "}],\"t\":0,\"d\":1}}");
+		}
+		firstMessageId = simulator.postMessage(ROOM_ID, 2, "first message");
+		for (int i = 1; i < MESSAGES; i++) {
+			simulator.postMessage(ROOM_ID, 2, "message " + i);
+		}
+		// the messages posted above raise events, wait for them before measuring
+		while (received.get() < MESSAGES) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.close();
+		simulator.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public long receiveEvents() {
+		long expected = received.get() + FRAMES;
+		simulator.replay(frames, 0);
+		while (received.get() < expected) {
+			Thread.yield();
+		}
+		return expected;
+	}
+
+	@Benchmark
+	public Message getMessage() {
+		// cycles over more messages than the cache holds, so that every message is fetched
+		return room.getMessage(firstMessageId + nextMessage++ % MESSAGES);
+	}
+
+}
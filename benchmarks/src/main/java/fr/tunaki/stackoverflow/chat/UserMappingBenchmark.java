@@ -0,0 +1,64 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+/**
+ * Measures the mapping of the users returned by <code>/user/info</code> into {@link User}s, as done by <code>Room.getUsers</code>:
+ * with the parsing of the response, and from the already parsed (and cached) user objects.
+ * @author Tunaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserMappingBenchmark {
+
+	private static final String HOST_URL_BASE = "https://chat.stackoverflow.com";
+
+	private String response;
+	private JsonArray users;
+
+	@Setup
+	public void setup() {
+		response = Fixtures.read("user-info.json");
+		users = new JsonParser().parse(response).getAsJsonObject().get("users").getAsJsonArray();
+	}
+
+	@Benchmark
+	public List<User> parseAndMap() {
+		return map(new JsonParser().parse(response).getAsJsonObject().get("users").getAsJsonArray());
+	}
+
+	@Benchmark
+	public List<User> map() {
+		return map(users);
+	}
+
+	private static List<User> map(JsonArray users) {
+		List<User> mapped = new ArrayList<>(users.size());
+		for (JsonElement user : users) {
+			mapped.add(User.fromJson(user.getAsJsonObject(), HOST_URL_BASE, id -> id % 2 == 0));
+		}
+		return mapped;
+	}
+
+}
@@ -0,0 +1,113 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Simple thread-safe cache, bounded in size and where entries expire a fixed amount of time after they were written.
+ * <p>When the cache is full, the least recently accessed entry is evicted. Expired entries are evicted when they are accessed.
+ * @author Tunaki
+ * @param <K> Type of the keys.
+ * @param <V> Type of the values.
+ */
+final class Cache<K, V> {
+
+	private final int maximumSize;
+	private final long expireAfterWriteNanos;
+	private final Map<K, Entry<V>> entries;
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	Cache(int maximumSize, long expireAfterWrite, TimeUnit unit) {
+		this.maximumSize = maximumSize;
+		this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	/**
+	 * Returns the value associated with the given key, or <code>null</code> if there is none or if it has expired.
+	 * @param key Key to look for.
+	 * @return Value associated with the key, or <code>null</code>.
+	 */
+	synchronized V get(K key) {
+		Entry<V> entry = entries.get(key);
+		if (entry != null && entry.isExpired(System.nanoTime())) {
+			entries.remove(key);
+			evictionCount.increment();
+			entry = null;
+		}
+		if (entry == null) {
+			missCount.increment();
+			return null;
+		}
+		hitCount.increment();
+		return entry.value;
+	}
+
+	/**
+	 * Associates the given value with the given key, evicting the least recently accessed entry if the cache is full.
+	 * @param key Key.
+	 * @param value Value, must not be <code>null</code>.
+	 */
+	synchronized void put(K key, V value) {
+		entries.put(key, new Entry<>(value, System.nanoTime() + expireAfterWriteNanos));
+		if (entries.size() > maximumSize) {
+			Iterator<Entry<V>> eldest = entries.values().iterator();
+			eldest.next();
+			eldest.remove();
+			evictionCount.increment();
+		}
+	}
+
+	/**
+	 * Replaces the value associated with the given key by the result of the given function, if there is one that has not expired.
+	 * The updated entry is considered as newly written.
+	 * @param key Key.
+	 * @param function Function computing the new value from the current one.
+	 */
+	synchronized void update(K key, UnaryOperator<V> function) {
+		Entry<V> entry = entries.get(key);
+		if (entry != null && !entry.isExpired(System.nanoTime())) {
+			entries.put(key, new Entry<>(function.apply(entry.value), System.nanoTime() + expireAfterWriteNanos));
+		}
+	}
+
+	/**
+	 * Discards the value associated with the given key, if any.
+	 * @param key Key.
+	 */
+	synchronized void invalidate(K key) {
+		entries.remove(key);
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	CacheStatistics statistics() {
+		return new CacheStatistics(hitCount.sum(), missCount.sum(), evictionCount.sum(), size());
+	}
+
+	private static final class Entry<V> {
+
+		private final V value;
+		private final long expirationTime;
+
+		Entry(V value, long expirationTime) {
+			this.value = value;
+			this.expirationTime = expirationTime;
+		}
+
+		boolean isExpired(long now) {
+			return now - expirationTime >= 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,69 @@
+package fr.tunaki.stackoverflow.chat;
+
+/**
+ * This class holds a snapshot of the statistics of a cache maintained by this library, like the cache of users.
+ * <p>A hit is a lookup that was answered by the cache, and a miss is a lookup that had to be fetched from the chat server.
+ * An eviction is an entry that was discarded, either because the cache was full or because the entry expired.
+ * @author Tunaki
+ */
+public final class CacheStatistics {
+
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+	private int size;
+
+	CacheStatistics(long hitCount, long missCount, long evictionCount, int size) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.size = size;
+	}
+
+	/**
+	 * Returns the number of lookups that were answered by the cache.
+	 * @return Number of hits.
+	 */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Returns the number of lookups that were not answered by the cache.
+	 * @return Number of misses.
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Returns the ratio of lookups that were answered by the cache. This is 1 when no lookups were made.
+	 * @return Ratio of hits, between 0 and 1.
+	 */
+	public double getHitRate() {
+		long requestCount = hitCount + missCount;
+		return requestCount == 0 ? 1 : (double) hitCount / requestCount;
+	}
+
+	/**
+	 * Returns the number of entries that were evicted from the cache, either because it was full or because they expired.
+	 * @return Number of evictions.
+	 */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * Returns the number of entries in the cache at the time this snapshot was taken.
+	 * @return Size of the cache.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStatistics[hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + ", size=" + size + "]";
+	}
+
+}
@@ -0,0 +1,67 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Base URLs of the servers a {@link StackExchangeClient} talks to: the OpenID provider used to log in, and, for each chat host, the site
+ * on which the user logs in and the chat server itself.
+ * <p>{@link #DEFAULT} targets the Stack Exchange network. Other endpoints can be used to target a local server, for example one
+ * simulating the chat server in order to benchmark the library offline.
+ * @author Tunaki
+ */
+public final class ChatEndpoints {
+
+	/**
+	 * Endpoints of the Stack Exchange network.
+	 */
+	public static final ChatEndpoints DEFAULT = new ChatEndpoints("https://openid.stackexchange.com", host -> "https://" + host.getName(), ChatHost::getBaseUrl);
+
+	private final String openIdUrl;
+	private final Function<ChatHost, String> siteUrl;
+	private final Function<ChatHost, String> chatUrl;
+
+	/**
+	 * @param openIdUrl Base URL of the OpenID provider (example: <code>https://openid.stackexchange.com</code>).
+	 * @param siteUrl Function returning the base URL of the site of a chat host (example: <code>https://stackoverflow.com</code>).
+	 * @param chatUrl Function returning the base URL of the chat server of a chat host (example: <code>https://chat.stackoverflow.com</code>).
+	 */
+	public ChatEndpoints(String openIdUrl, Function<ChatHost, String> siteUrl, Function<ChatHost, String> chatUrl) {
+		this.openIdUrl = Objects.requireNonNull(openIdUrl, "openIdUrl");
+		this.siteUrl = Objects.requireNonNull(siteUrl, "siteUrl");
+		this.chatUrl = Objects.requireNonNull(chatUrl, "chatUrl");
+	}
+
+	/**
+	 * Returns the endpoints of a single server, serving the OpenID provider, the sites and the chat servers of all the chat hosts.
+	 * @param baseUrl Base URL of the server (example: <code>http://localhost:8080</code>).
+	 * @return Endpoints of the given server.
+	 */
+	public static ChatEndpoints of(String baseUrl) {
+		return new ChatEndpoints(baseUrl, host -> baseUrl, host -> baseUrl);
+	}
+
+	/**
+	 * @return The base URL of the OpenID provider.
+	 */
+	public String getOpenIdUrl() {
+		return openIdUrl;
+	}
+
+	/**
+	 * @param host Chat host.
+	 * @return The base URL of the site on which the user logs in for the given chat host.
+	 */
+	public String getSiteUrl(ChatHost host) {
+		return siteUrl.apply(host);
+	}
+
+	/**
+	 * @param host Chat host.
+	 * @return The base URL of the chat server of the given chat host.
+	 */
+	public String getChatUrl(ChatHost host) {
+		return chatUrl.apply(host);
+	}
+
+}
@@ -0,0 +1,75 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.function.IntPredicate;
+import java.util.function.ObjIntConsumer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Decoder of the frames sent by the chat WebSocket.
+ * <p>A frame is a JSON object with one <code>r{roomId}</code> member per room, holding the events of that room in its <code>e</code>
+ * array, along with bookkeeping members (like <code>t</code> and <code>d</code>). This decoder reads a frame in a single pass: the
+ * members of rooms that are not of interest are skipped without being parsed into objects, and only the events of the other rooms
+ * are materialized.
+ * @author Tunaki
+ */
+final class ChatEventDecoder {
+
+	private ChatEventDecoder() { }
+
+	/**
+	 * Decodes the given frame.
+	 * @param frame Raw frame, as sent by the chat WebSocket.
+	 * @param interested Predicate telling whether the events of the room with the given id should be decoded.
+	 * @param consumer Consumer of the decoded events, called once per room of interest having events, with the id of the room.
+	 * @throws IOException if the frame is not valid JSON.
+	 */
+	static void decode(String frame, IntPredicate interested, ObjIntConsumer<JsonArray> consumer) throws IOException {
+		JsonParser parser = new JsonParser();
+		try (JsonReader reader = new JsonReader(new StringReader(frame))) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				int roomId = parseRoomId(reader.nextName());
+				if (roomId < 0 || !interested.test(roomId)) {
+					reader.skipValue();
+					continue;
+				}
+				JsonArray events = null;
+				reader.beginObject();
+				while (reader.hasNext()) {
+					if (reader.nextName().equals("e")) {
+						events = new JsonArray();
+						reader.beginArray();
+						while (reader.hasNext()) {
+							events.add(parser.parse(reader));
+						}
+						reader.endArray();
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+				if (events != null) {
+					consumer.accept(events, roomId);
+				}
+			}
+			reader.endObject();
+		}
+	}
+
+	private static int parseRoomId(String key) {
+		if (key.length() < 2 || key.charAt(0) != 'r') return -1;
+		int roomId = 0;
+		for (int i = 1; i < key.length(); i++) {
+			char c = key.charAt(i);
+			if (c < '0' || c > '9' || roomId > (Integer.MAX_VALUE - 9) / 10) return -1;
+			roomId = roomId * 10 + (c - '0');
+		}
+		return roomId;
+	}
+
+}
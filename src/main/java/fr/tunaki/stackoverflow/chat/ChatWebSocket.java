@@ -0,0 +1,318 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ClientEndpointConfig.Builder;
+import javax.websocket.ClientEndpointConfig.Configurator;
+import javax.websocket.CloseReason;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.PongMessage;
+import javax.websocket.Session;
+
+import org.glassfish.tyrus.client.ClientManager;
+import org.glassfish.tyrus.client.ClientProperties;
+import org.glassfish.tyrus.container.jdk.client.JdkClientContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * WebSocket connection to a chat host, shared by all the rooms joined on that host.
+ * <p>The chat server sends the events of all the rooms joined by the current user on a single WebSocket. Each frame is a JSON object
+ * with one <code>r{roomId}</code> member per room having events: this class parses each frame once and routes the events to the
+ * corresponding registered {@link Room}.
+ * <p>The connection is opened when the first room registers, and closed when the last room unregisters. Its liveness is checked by
+ * sending pings regularly: when neither a frame nor a pong was received for {@value #LIVENESS_TIMEOUT_SECONDS} seconds, or when the
+ * server closes the connection, it is re-opened with an exponential backoff. Once it is re-opened, each room fetches the events it
+ * missed while disconnected, holding the events received on the new connection until then.
+ * @author Tunaki
+ */
+final class ChatWebSocket {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ChatWebSocket.class);
+
+	private static final int PING_INTERVAL_SECONDS = 15;
+	private static final int LIVENESS_TIMEOUT_SECONDS = 45;
+	private static final long RECONNECT_BASE_DELAY_MILLIS = 1000;
+	private static final long RECONNECT_MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+	private final Map<Integer, Room> rooms = new ConcurrentHashMap<>();
+
+	private ChatHost host;
+	private String origin;
+	private Session webSocketSession;
+	private ScheduledFuture<?> heartbeat, reconnection;
+	private int reconnectionAttempts;
+	private volatile long lastActivityNanos = System.nanoTime();
+
+	private final boolean metricsEnabled;
+	private final MetricsRegistry.Timer frameParse, idleTime;
+	private final MetricsRegistry.Counter reconnects;
+	private long roomHandlingNanos; // frames are handled one at a time by the session
+	private final Tracer tracer;
+
+	ChatWebSocket(ChatHost host, String origin, MetricsRegistry metricsRegistry, Tracer tracer) {
+		this.host = host;
+		this.origin = origin;
+		this.tracer = tracer;
+		metricsEnabled = metricsRegistry.isEnabled();
+		frameParse = metricsRegistry.timer("chat.websocket.frame.parse", "host", host.getName());
+		idleTime = metricsRegistry.timer("chat.websocket.idle", "host", host.getName());
+		reconnects = metricsRegistry.counter("chat.websocket.reconnects", "host", host.getName());
+	}
+
+	/**
+	 * Registers the given room so that its events are routed to it, opening the connection if it isn't already.
+	 * <p>The room must already have joined the chat events of the room, so that the chat server sends them on this connection.
+	 * @param room Room to register.
+	 */
+	synchronized void register(Room room) {
+		rooms.put(room.getRoomId(), room);
+		if (heartbeat == null) {
+			if (!initWebSocket()) {
+				scheduleReconnection();
+			}
+			heartbeat = executor.scheduleWithFixedDelay(this::checkLiveness, PING_INTERVAL_SECONDS, PING_INTERVAL_SECONDS, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Unregisters the given room, closing the connection if it was the last registered room.
+	 * @param room Room to unregister.
+	 */
+	synchronized void unregister(Room room) {
+		rooms.remove(room.getRoomId(), room);
+		if (rooms.isEmpty()) {
+			stop();
+		}
+	}
+
+	/**
+	 * Disposes of this connection. It cannot be used afterwards.
+	 */
+	synchronized void close() {
+		rooms.clear();
+		stop();
+		executor.shutdown();
+	}
+
+	private void stop() {
+		if (heartbeat != null) {
+			heartbeat.cancel(false);
+			heartbeat = null;
+		}
+		if (reconnection != null) {
+			reconnection.cancel(false);
+			reconnection = null;
+		}
+		closeWebSocket();
+	}
+
+	private synchronized void checkLiveness() {
+		if (webSocketSession == null) return; // a reconnection is already scheduled
+		long idleSeconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - lastActivityNanos);
+		if (idleSeconds > LIVENESS_TIMEOUT_SECONDS) {
+			LOGGER.debug("No activity on the WebSocket connection to {} for {} seconds, reconnecting", host, idleSeconds);
+			scheduleReconnection();
+			return;
+		}
+		try {
+			webSocketSession.getAsyncRemote().sendPing(ByteBuffer.allocate(0));
+		} catch (IOException | IllegalStateException e) {
+			LOGGER.debug("Cannot ping the WebSocket connection to {}, reconnecting", host, e);
+			scheduleReconnection();
+		}
+	}
+
+	private synchronized void onClose(Session session, CloseReason closeReason) {
+		if (session == webSocketSession) {
+			LOGGER.debug("WebSocket connection to {} was closed by the server ({}), reconnecting", host, closeReason);
+			scheduleReconnection();
+		}
+	}
+
+	private void scheduleReconnection() {
+		closeWebSocket();
+		if (reconnection != null && !reconnection.isDone()) return;
+		long delay = Math.min(RECONNECT_MAX_DELAY_MILLIS, RECONNECT_BASE_DELAY_MILLIS << Math.min(reconnectionAttempts, 16));
+		delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1); // jitter so that all hosts don't reconnect in lockstep
+		reconnectionAttempts++;
+		LOGGER.debug("Reconnecting to the WebSocket for {} in {} ms (attempt {})", host, delay, reconnectionAttempts);
+		reconnection = executor.schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Re-opens the connection, and fetches the events each room missed. The last event handled by each room is recorded, and the events
+	 * received on the new connection are held, before opening it: no event is lost between the missed ones and the new connection, and
+	 * the events received on it are then handled after the missed ones. The lock is only held to take a snapshot of the rooms and to
+	 * swap the session: the rooms can register or unregister while the connection is opened and the events are fetched.
+	 */
+	private void reconnect() {
+		List<Room> snapshot;
+		synchronized (this) {
+			if (rooms.isEmpty()) return;
+			snapshot = new ArrayList<>(rooms.values());
+		}
+		reconnects.increment();
+		long[] lastEventIds = new long[snapshot.size()];
+		for (int i = 0; i < snapshot.size(); i++) {
+			lastEventIds[i] = snapshot.get(i).holdChatEvents();
+		}
+		Session session = openSession(snapshot.get(0));
+		boolean opened;
+		synchronized (this) {
+			if (heartbeat == null || webSocketSession != null) {
+				// this connection was stopped, or re-opened by a registration, in the meantime
+				closeSession(session);
+				opened = false;
+			} else if (session != null) {
+				webSocketSession = session;
+				reconnectionAttempts = 0;
+				opened = true;
+			} else {
+				reconnection = null;
+				scheduleReconnection();
+				opened = false;
+			}
+		}
+		for (int i = 0; i < snapshot.size(); i++) {
+			Room room = snapshot.get(i);
+			try {
+				if (opened) {
+					room.backfillChatEvents(lastEventIds[i]);
+				}
+			} catch (RuntimeException e) {
+				LOGGER.error("Cannot retrieve the events missed in room {} while disconnected", room.getRoomId(), e);
+			} finally {
+				room.releaseChatEvents();
+			}
+		}
+	}
+
+	private boolean initWebSocket() {
+		webSocketSession = openSession(rooms.values().iterator().next());
+		return webSocketSession != null;
+	}
+
+	/**
+	 * Opens a new session, authenticated with the given room.
+	 * @return The session, or <code>null</code> if it couldn't be opened.
+	 */
+	private Session openSession(Room room) {
+		String websocketUrl;
+		try {
+			websocketUrl = room.retrieveWebSocketUrl();
+		} catch (ChatOperationException e) {
+			LOGGER.error("Error while retrieving WebSocket information for {}.", host, e);
+			return null;
+		}
+		LOGGER.debug("Connecting to chat WebSocket at URL {} for {}", websocketUrl, host);
+		ClientManager client = ClientManager.createClient(JdkClientContainer.class.getName());
+		Builder configBuilder = ClientEndpointConfig.Builder.create();
+		configBuilder.configurator(new Configurator() {
+			@Override
+			public void beforeRequest(Map<String, List<String>> headers) {
+				headers.put("Origin", Arrays.asList(origin));
+			}
+		});
+		client.getProperties().put(ClientProperties.RETRY_AFTER_SERVICE_UNAVAILABLE, true);
+		Session session;
+		try {
+			lastActivityNanos = System.nanoTime();
+			session = client.connectToServer(new Endpoint() {
+				@Override
+				public void onOpen(Session session, EndpointConfig config) {
+					session.addMessageHandler(String.class, ChatWebSocket.this::handleChatEvent);
+					session.addMessageHandler(PongMessage.class, pong -> lastActivityNanos = System.nanoTime());
+				}
+				@Override
+				public void onClose(Session session, CloseReason closeReason) {
+					try {
+						executor.execute(() -> ChatWebSocket.this.onClose(session, closeReason));
+					} catch (RejectedExecutionException e) {
+						// this connection was disposed of
+					}
+				}
+				@Override
+				public void onError(Session session, Throwable thr) {
+					LOGGER.error("An error occured during the processing of a message on {}", host, thr);
+				}
+			}, configBuilder.build(), new URI(websocketUrl));
+		} catch (DeploymentException | URISyntaxException | IOException e) {
+			LOGGER.error("Cannot connect to chat websocket for {}", host, e);
+			return null;
+		}
+		LOGGER.debug("WebSocket session successfully opened for {}.", host);
+		return session;
+	}
+
+	private void closeWebSocket() {
+		Session session = webSocketSession;
+		webSocketSession = null;
+		closeSession(session);
+	}
+
+	private void closeSession(Session session) {
+		if (session == null) return;
+		try {
+			session.close();
+			LOGGER.debug("WebSocket session successfully closed for {}.", host);
+		} catch (IOException e) {
+			LOGGER.error("Error while closing the WebSocket for {}.", host, e);
+		}
+	}
+
+	private void handleChatEvent(String json) {
+		LOGGER.debug("Received message: {}", json);
+		long received = System.nanoTime();
+		if (metricsEnabled) {
+			idleTime.record(received - lastActivityNanos, TimeUnit.NANOSECONDS);
+			roomHandlingNanos = 0;
+		}
+		lastActivityNanos = received;
+		Tracer.Span frameSpan = tracer.startTrace("chat.frame");
+		if (frameSpan != null) {
+			frameSpan.attribute("host", host.getName()).attribute("frame.length", json.length());
+		}
+		try {
+			ChatEventDecoder.decode(json, rooms::containsKey, (events, roomId) -> {
+				Room room = rooms.get(roomId);
+				if (room == null) return;
+				if (metricsEnabled) {
+					long start = System.nanoTime();
+					room.handleChatEvents(events, frameSpan);
+					roomHandlingNanos += System.nanoTime() - start;
+				} else {
+					room.handleChatEvents(events, frameSpan);
+				}
+			});
+			if (metricsEnabled) {
+				frameParse.record(System.nanoTime() - received - roomHandlingNanos, TimeUnit.NANOSECONDS);
+			}
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Error while handling the chat events received on {}: {}", host, json, e);
+		} finally {
+			if (frameSpan != null) {
+				frameSpan.end();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,285 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+/**
+ * Append-only journal of the raw chat events received in a room, so that they can be replayed later.
+ * <p>The journal is a directory of segments of {@value #SEGMENT_SIZE} bytes, memory-mapped while they are written. Each event is a
+ * record holding its length, its id, its timestamp, whether it was the last event of the frame it was received in, and its JSON data.
+ * A record is published by writing its length last, so that a segment ends at the first zero length, even after a crash.
+ * <p>Each segment has an index file holding the id, the timestamp and the offset of each of its records. The index is kept in memory as
+ * primitive arrays, and searched by binary search, since events are journaled in the order of their ids.
+ * @author Tunaki
+ */
+final class EventJournal implements AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(EventJournal.class);
+
+	private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+	private static final int RECORD_HEADER_SIZE = 4 + 8 + 8 + 1;
+	private static final int INDEX_ENTRY_SIZE = 8 + 8 + 4;
+	private static final String SEGMENT_SUFFIX = ".segment";
+	private static final String INDEX_SUFFIX = ".index";
+
+	private final Path directory;
+	private final List<Segment> segments = new ArrayList<>();
+	private Segment active;
+
+	/**
+	 * Opens the journal in the given directory, creating it if needed. Records written after the index of a segment, because the process
+	 * stopped before the index was written, are indexed again.
+	 * @param directory Directory of the journal.
+	 * @throws IOException if the journal cannot be opened.
+	 */
+	EventJournal(Path directory) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+			stream.forEach(files::add);
+		}
+		files.sort(null);
+		for (Path file : files) {
+			String name = file.getFileName().toString();
+			segments.add(new Segment(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()))));
+		}
+		if (segments.isEmpty()) {
+			segments.add(new Segment(0));
+		}
+		active = segments.get(segments.size() - 1);
+		active.openForWriting();
+	}
+
+	/**
+	 * Appends the given events, received in a single frame, in their order.
+	 * @param events Raw events.
+	 * @throws IOException if the events cannot be written.
+	 */
+	synchronized void append(JsonArray events) throws IOException {
+		for (int i = 0; i < events.size(); i++) {
+			JsonElement event = events.get(i);
+			byte[] data = event.toString().getBytes(StandardCharsets.UTF_8);
+			if (RECORD_HEADER_SIZE + data.length + 4 > SEGMENT_SIZE) {
+				LOGGER.warn("Event {} is too large to be journaled in {}", event, directory);
+				continue;
+			}
+			if (active.position + RECORD_HEADER_SIZE + data.length + 4 > SEGMENT_SIZE) {
+				active.closeForWriting();
+				active = new Segment(active.number + 1);
+				active.openForWriting();
+				segments.add(active);
+			}
+			long id = longMember(event, "id"), timestamp = longMember(event, "time_stamp");
+			active.append(id, timestamp, i == events.size() - 1, data);
+		}
+	}
+
+	private static long longMember(JsonElement event, String name) {
+		JsonElement member = event.getAsJsonObject().get(name);
+		return member == null || member.isJsonNull() ? 0 : member.getAsLong();
+	}
+
+	/**
+	 * Replays the journaled events whose id, or timestamp, is within the given bounds, in the order they were journaled. The events
+	 * are given grouped by the frame they were received in.
+	 * <p>The journal is only locked to take a snapshot of the indexes of its segments: the events are read and given to the consumer
+	 * without holding the lock, so that a slow consumer doesn't stall the events being journaled meanwhile. Those are not replayed.
+	 * @param byTimestamp Whether the bounds are timestamps, in seconds since the epoch, instead of event ids.
+	 * @param from Lower bound, inclusive.
+	 * @param to Upper bound, inclusive.
+	 * @param consumer Consumer of the events.
+	 * @return Number of events replayed.
+	 * @throws IOException if the journal cannot be read.
+	 */
+	long replay(boolean byTimestamp, long from, long to, Consumer<JsonArray> consumer) throws IOException {
+		List<SegmentSnapshot> snapshots = new ArrayList<>();
+		synchronized (this) {
+			for (Segment segment : segments) {
+				long[] keys = byTimestamp ? segment.timestamps : segment.ids;
+				if (segment.count == 0 || keys[segment.count - 1] < from || keys[0] > to) continue;
+				snapshots.add(new SegmentSnapshot(segment, keys));
+			}
+		}
+		long count = 0;
+		for (SegmentSnapshot segment : snapshots) {
+			long[] keys = segment.keys;
+			ByteBuffer buffer = segment.readBuffer();
+			JsonArray frame = new JsonArray();
+			for (int i = lowerBound(keys, segment.count, from); i < segment.count && keys[i] <= to; i++) {
+				int offset = segment.offsets[i];
+				int length = buffer.getInt(offset);
+				boolean lastInFrame = buffer.get(offset + RECORD_HEADER_SIZE - 1) != 0;
+				byte[] data = new byte[length];
+				ByteBuffer slice = buffer.duplicate();
+				slice.position(offset + RECORD_HEADER_SIZE);
+				slice.get(data);
+				frame.add(new JsonParser().parse(new String(data, StandardCharsets.UTF_8)));
+				count++;
+				if (lastInFrame) {
+					consumer.accept(frame);
+					frame = new JsonArray();
+				}
+			}
+			if (frame.size() > 0) {
+				consumer.accept(frame);
+			}
+		}
+		return count;
+	}
+
+	private static ByteBuffer mapForReading(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	private static int lowerBound(long[] keys, int count, long key) {
+		int low = 0, high = count;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (keys[mid] < key) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Flushes the active segment to disk and closes the journal.
+	 */
+	@Override
+	public synchronized void close() {
+		try {
+			active.closeForWriting();
+		} catch (IOException e) {
+			LOGGER.error("Cannot close the event journal {}", directory, e);
+		}
+	}
+
+	private final class Segment {
+
+		private final long number;
+		private final Path file, indexFile;
+
+		private long[] ids = new long[64], timestamps = new long[64];
+		private int[] offsets = new int[64];
+		private int count, position;
+
+		private MappedByteBuffer buffer;
+		private FileChannel indexChannel;
+
+		Segment(long number) throws IOException {
+			this.number = number;
+			String name = String.format("%020d", number);
+			file = directory.resolve(name + SEGMENT_SUFFIX);
+			indexFile = directory.resolve(name + INDEX_SUFFIX);
+			if (Files.exists(indexFile)) {
+				ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+				while (index.remaining() >= INDEX_ENTRY_SIZE) {
+					index(index.getLong(), index.getLong(), index.getInt());
+				}
+			}
+		}
+
+		void openForWriting() throws IOException {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				buffer = channel.map(MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+			}
+			indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			indexChannel.position((long) count * INDEX_ENTRY_SIZE);
+			position = count == 0 ? 0 : offsets[count - 1] + RECORD_HEADER_SIZE + buffer.getInt(offsets[count - 1]);
+			// records written after the last index entry
+			int length;
+			while (position + RECORD_HEADER_SIZE <= SEGMENT_SIZE && (length = buffer.getInt(position)) > 0) {
+				writeIndex(buffer.getLong(position + 4), buffer.getLong(position + 12), position);
+				position += RECORD_HEADER_SIZE + length;
+			}
+		}
+
+		void append(long id, long timestamp, boolean lastInFrame, byte[] data) throws IOException {
+			int offset = position;
+			ByteBuffer record = buffer.duplicate();
+			record.position(offset + 4);
+			record.putLong(id).putLong(timestamp).put((byte) (lastInFrame ? 1 : 0)).put(data);
+			buffer.putInt(offset, data.length); // publishes the record
+			position += RECORD_HEADER_SIZE + data.length;
+			writeIndex(id, timestamp, offset);
+		}
+
+		private void writeIndex(long id, long timestamp, int offset) throws IOException {
+			ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+			entry.putLong(id).putLong(timestamp).putInt(offset).flip();
+			while (entry.hasRemaining()) {
+				indexChannel.write(entry);
+			}
+			index(id, timestamp, offset);
+		}
+
+		private void index(long id, long timestamp, int offset) {
+			if (count == ids.length) {
+				ids = Arrays.copyOf(ids, count * 2);
+				timestamps = Arrays.copyOf(timestamps, count * 2);
+				offsets = Arrays.copyOf(offsets, count * 2);
+			}
+			ids[count] = id;
+			timestamps[count] = timestamp;
+			offsets[count] = offset;
+			count++;
+		}
+
+		void closeForWriting() throws IOException {
+			if (buffer == null) return;
+			buffer.force();
+			buffer = null;
+			indexChannel.force(false);
+			indexChannel.close();
+		}
+
+	}
+
+	/**
+	 * Records of a segment at the time of the snapshot. Appending to a segment only writes past its last indexed record, and growing its
+	 * index arrays replaces them, so the arrays and the records are not modified afterwards.
+	 */
+	private static final class SegmentSnapshot {
+
+		private final long[] keys;
+		private final int[] offsets;
+		private final int count;
+		private final ByteBuffer buffer;
+		private final Path file;
+
+		SegmentSnapshot(Segment segment, long[] keys) {
+			this.keys = keys;
+			this.offsets = segment.offsets;
+			this.count = segment.count;
+			this.buffer = segment.buffer == null ? null : segment.buffer.duplicate();
+			this.file = segment.file;
+		}
+
+		ByteBuffer readBuffer() throws IOException {
+			return buffer != null ? buffer : mapForReading(file);
+		}
+
+	}
+
+}
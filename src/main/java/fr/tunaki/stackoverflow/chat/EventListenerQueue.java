@@ -0,0 +1,244 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue of the events pending for a single listener.
+ * <p>Events are delivered to the listener one at a time and in order, by a task running on the given executor while there are
+ * pending events. Many queues can thus share a small pool of threads, without a slow listener delaying the others.
+ * <p>When given meters, the queue records the time each event waited before being delivered, and the number of pending events each
+ * time one is added. The time each pending event was added is then kept in a ring of primitive longs, next to the events.
+ * <p>Events offered with a span, because their frame is traced, are queued along with it: the span ends when the event is delivered,
+ * and the execution of the listener is traced as a following span.
+ * @author Tunaki
+ * @param <T> Type of the events.
+ */
+final class EventListenerQueue<T> {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(EventListenerQueue.class);
+
+	private static final int MAX_EVENTS_PER_DRAIN = 64;
+
+	private final Consumer<T> listener;
+	private final Executor executor;
+	private final int capacity;
+	private final OverflowPolicy overflowPolicy;
+	private final MetricsRegistry.Timer dispatchLatency;
+	private final MetricsRegistry.Summary queueDepth;
+
+	private final Deque<Object> events = new ArrayDeque<>();
+	private final LongAdder droppedCount = new LongAdder();
+	private boolean draining;
+	private long[] offeredNanos;
+	private int offeredHead;
+
+	EventListenerQueue(Consumer<T> listener, Executor executor, int capacity, OverflowPolicy overflowPolicy) {
+		this(listener, executor, capacity, overflowPolicy, null, null);
+	}
+
+	/**
+	 * @param dispatchLatency Timer of the time events wait before being delivered, or <code>null</code> to not record it.
+	 * @param queueDepth Summary of the number of pending events, or <code>null</code> to not record it.
+	 */
+	EventListenerQueue(Consumer<T> listener, Executor executor, int capacity, OverflowPolicy overflowPolicy, MetricsRegistry.Timer dispatchLatency, MetricsRegistry.Summary queueDepth) {
+		this.listener = listener;
+		this.executor = executor;
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		this.dispatchLatency = dispatchLatency;
+		this.queueDepth = queueDepth;
+		if (dispatchLatency != null) {
+			offeredNanos = new long[16];
+		}
+	}
+
+	/**
+	 * Adds the given event to this queue, applying the overflow policy if it is full.
+	 * @param event Event to deliver to the listener.
+	 */
+	void offer(T event) {
+		offer(event, null);
+	}
+
+	/**
+	 * Adds the given event to this queue, applying the overflow policy if it is full, and traces its wait in the queue.
+	 * @param event Event to deliver to the listener.
+	 * @param queueSpan Span of the wait of the event in the queue, or <code>null</code> if the event isn't traced.
+	 */
+	synchronized void offer(T event, Tracer.Span queueSpan) {
+		if (events.size() >= capacity) {
+			switch (overflowPolicy) {
+			case BLOCK:
+				while (events.size() >= capacity) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						droppedCount.increment();
+						endDropped(queueSpan);
+						return;
+					}
+				}
+				break;
+			case DROP_OLDEST:
+				Object dropped = events.poll();
+				pollOfferedNanos();
+				droppedCount.increment();
+				if (dropped instanceof Traced) {
+					endDropped(((Traced) dropped).queueSpan);
+				}
+				break;
+			case DROP_NEWEST:
+				droppedCount.increment();
+				endDropped(queueSpan);
+				return;
+			}
+		}
+		events.add(queueSpan == null ? event : new Traced(event, queueSpan));
+		if (offeredNanos != null) {
+			addOfferedNanos(System.nanoTime());
+		}
+		if (queueDepth != null) {
+			queueDepth.record(events.size());
+		}
+		if (!draining) {
+			draining = true;
+			try {
+				executor.execute(this::drain);
+			} catch (RejectedExecutionException e) {
+				LOGGER.debug("Event {} will not be delivered: the room was left", event);
+				discardPending();
+			}
+		}
+	}
+
+	private void drain() {
+		for (int i = 0; i < MAX_EVENTS_PER_DRAIN; i++) {
+			Object polled;
+			synchronized (this) {
+				polled = events.poll();
+				if (polled == null) {
+					draining = false;
+					return;
+				}
+				if (offeredNanos != null) {
+					dispatchLatency.record(System.nanoTime() - pollOfferedNanos(), TimeUnit.NANOSECONDS);
+				}
+				notifyAll();
+			}
+			if (polled instanceof Traced) {
+				deliverTraced((Traced) polled);
+				continue;
+			}
+			@SuppressWarnings("unchecked") T event = (T) polled;
+			try {
+				listener.accept(event);
+			} catch (RuntimeException e) {
+				LOGGER.error("Listener failed to process event {}", event, e);
+			}
+		}
+		// give the other listeners a chance to run before draining the rest
+		try {
+			executor.execute(this::drain);
+		} catch (RejectedExecutionException e) {
+			synchronized (this) {
+				LOGGER.debug("{} events will not be delivered: the room was left", events.size());
+				discardPending();
+			}
+		}
+	}
+
+	/**
+	 * Discards the pending events, once they can no longer be delivered, and wakes up the threads waiting for room in this queue.
+	 */
+	private void discardPending() {
+		for (Object pending : events) {
+			if (pending instanceof Traced) {
+				endDropped(((Traced) pending).queueSpan);
+			}
+		}
+		events.clear();
+		offeredHead = 0;
+		draining = false;
+		notifyAll();
+	}
+
+	private void deliverTraced(Traced traced) {
+		traced.queueSpan.end();
+		Tracer.Span listenerSpan = traced.queueSpan.follow("chat.listener");
+		Tracer.Span previous = listenerSpan.makeCurrent();
+		@SuppressWarnings("unchecked") T event = (T) traced.event;
+		try {
+			listener.accept(event);
+		} catch (RuntimeException e) {
+			listenerSpan.attribute("error", e.toString());
+			LOGGER.error("Listener failed to process event {}", event, e);
+		} finally {
+			Tracer.restore(previous);
+			listenerSpan.end();
+		}
+	}
+
+	private static void endDropped(Tracer.Span queueSpan) {
+		if (queueSpan != null) {
+			queueSpan.attribute("dropped", true).end();
+		}
+	}
+
+	/**
+	 * Appends the time the last added event was offered; there is then one time per pending event, the first being at
+	 * <code>offeredHead</code>.
+	 */
+	private void addOfferedNanos(long nanos) {
+		int size = events.size() - 1;
+		if (size == offeredNanos.length) {
+			long[] grown = new long[offeredNanos.length * 2];
+			for (int i = 0; i < size; i++) {
+				grown[i] = offeredNanos[(offeredHead + i) % offeredNanos.length];
+			}
+			offeredNanos = grown;
+			offeredHead = 0;
+		}
+		offeredNanos[(offeredHead + size) % offeredNanos.length] = nanos;
+	}
+
+	private long pollOfferedNanos() {
+		if (offeredNanos == null) return 0;
+		long nanos = offeredNanos[offeredHead];
+		offeredHead = (offeredHead + 1) % offeredNanos.length;
+		return nanos;
+	}
+
+	synchronized int size() {
+		return events.size();
+	}
+
+	long droppedCount() {
+		return droppedCount.sum();
+	}
+
+	/**
+	 * Event queued along with the span of its wait in the queue.
+	 */
+	private static final class Traced {
+
+		private final Object event;
+		private final Tracer.Span queueSpan;
+
+		Traced(Object event, Tracer.Span queueSpan) {
+			this.event = event;
+			this.queueSpan = queueSpan;
+		}
+
+	}
+
+}
@@ -0,0 +1,69 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import fr.tunaki.stackoverflow.chat.event.EventType;
+
+/**
+ * Registry of the listeners of a room, indexed by the ordinal of their event type.
+ * <p>The registry is copy-on-write: adding or removing a listener replaces the whole table, so that looking up the listeners
+ * of an event, done for every event raised, is a plain array access without locking.
+ * @author Tunaki
+ */
+final class EventListenerRegistry {
+
+	private static final EventListenerQueue<Object>[] NO_LISTENERS = newArray(EventListenerQueue.class, 0);
+
+	private final AtomicReference<EventListenerQueue<Object>[][]> listeners;
+
+	EventListenerRegistry() {
+		EventListenerQueue<Object>[][] table = newArray(NO_LISTENERS.getClass(), EventType.count());
+		Arrays.fill(table, NO_LISTENERS);
+		listeners = new AtomicReference<>(table);
+	}
+
+	ListenerRegistration add(EventType<?> eventType, EventListenerQueue<Object> queue) {
+		int ordinal = eventType.ordinal();
+		listeners.updateAndGet(table -> {
+			EventListenerQueue<Object>[][] copy = table.clone();
+			copy[ordinal] = Arrays.copyOf(table[ordinal], table[ordinal].length + 1);
+			copy[ordinal][table[ordinal].length] = queue;
+			return copy;
+		});
+		return new ListenerRegistration(this, ordinal, queue);
+	}
+
+	void remove(int ordinal, EventListenerQueue<Object> queue) {
+		listeners.updateAndGet(table -> {
+			EventListenerQueue<Object>[] current = table[ordinal];
+			int index = Arrays.asList(current).indexOf(queue);
+			if (index < 0) return table;
+			EventListenerQueue<Object>[][] copy = table.clone();
+			copy[ordinal] = Arrays.copyOf(current, current.length - 1);
+			System.arraycopy(current, index + 1, copy[ordinal], index, current.length - index - 1);
+			return copy;
+		});
+	}
+
+	/**
+	 * Returns the listeners of the given event type. The returned array must not be modified.
+	 * @param eventType Event type.
+	 * @return Listeners of this event type.
+	 */
+	EventListenerQueue<Object>[] get(EventType<?> eventType) {
+		return listeners.get()[eventType.ordinal()];
+	}
+
+	Stream<EventListenerQueue<Object>> all() {
+		return Arrays.stream(listeners.get()).flatMap(Arrays::stream);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T[] newArray(Class<?> componentType, int length) {
+		return (T[]) Array.newInstance(componentType, length);
+	}
+
+}
@@ -3,29 +3,39 @@ package fr.tunaki.stackoverflow.chat;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import org.jsoup.Connection;
 import org.jsoup.Connection.Method;
-import org.jsoup.Connection.Response;
-import org.jsoup.Jsoup;
 
 /**
  * Client for raw HTTP requests.
- * <p>It takes a map of current cookies and updates them at each calls.
+ * <p>Each request holds a map of current cookies, which is updated with the cookies set by the server once the request completes.
+ * <p>The default implementation, {@link PooledHttpClient}, keeps the connections to each host alive between requests. Other
+ * implementations can be given to {@link StackExchangeClient#StackExchangeClient(String, String, HttpClient)}.
  * @author Tunaki
  */
-class HttpClient {
+public interface HttpClient extends AutoCloseable {
+
+	/**
+	 * Executes asynchronously the given request.
+	 * <p>Redirections are followed. Once the request completes, the cookies set by the server, including by the redirections, are
+	 * added to the cookies of the request. Unless the request ignores HTTP errors, the returned future completes exceptionally with
+	 * an {@link org.jsoup.HttpStatusException} when the response code isn't 2xx.
+	 * @param request Request to execute.
+	 * @return A future holding the response to the request.
+	 */
+	CompletableFuture<HttpResponse> execute(HttpRequest request);
 
 	/**
 	 * Performs a HTTP GET to the given URL.
 	 * @param url URL to GET.
 	 * @param cookies Cookies to send with the request.
 	 * @param data GET parameters.
-	 * @return <code>Response</code> associated with the result of the request.
+	 * @return <code>HttpResponse</code> associated with the result of the request.
 	 * @throws IOException in case of errors
 	 */
-	public Response get(String url, Map<String, String> cookies, String... data) throws IOException {
-		return execute(Method.GET, url, cookies, false, null, null, null, data);
+	default HttpResponse get(String url, Map<String, String> cookies, String... data) throws IOException {
+		return HttpResponse.await(execute(new HttpRequest(Method.GET, url, cookies, false, data)));
 	}
 
 	/**
@@ -33,15 +43,26 @@ class HttpClient {
 	 * @param url URL to POST to.
 	 * @param cookies Cookies to send with the request.
 	 * @param data POST parameters.
-	 * @return <code>Response</code> associated with the result of the request.
+	 * @return <code>HttpResponse</code> associated with the result of the request.
 	 * @throws IOException in case of errors
 	 */
-	public Response post(String url, Map<String, String> cookies, String... data) throws IOException {
-		return execute(Method.POST, url, cookies, false, null, null, null, data);
+	default HttpResponse post(String url, Map<String, String> cookies, String... data) throws IOException {
+		return HttpResponse.await(execute(new HttpRequest(Method.POST, url, cookies, false, data)));
 	}
 
-	public Response postWithFile(String url, Map<String, String> cookies, String fileKey, String fileName, InputStream inputStream, String... data) throws IOException {
-		return execute(Method.POST, url, cookies, false, fileKey, fileName, inputStream, data);
+	/**
+	 * Performs a multipart HTTP POST to the given URL, uploading the content of the given stream as a file.
+	 * @param url URL to POST to.
+	 * @param cookies Cookies to send with the request.
+	 * @param fileKey Name of the parameter holding the file.
+	 * @param fileName Name of the file.
+	 * @param inputStream Content of the file.
+	 * @param data POST parameters.
+	 * @return <code>HttpResponse</code> associated with the result of the request.
+	 * @throws IOException in case of errors
+	 */
+	default HttpResponse postWithFile(String url, Map<String, String> cookies, String fileKey, String fileName, InputStream inputStream, String... data) throws IOException {
+		return HttpResponse.await(execute(new HttpRequest(Method.POST, url, cookies, fileKey, fileName, inputStream, data)));
 	}
 
 	/**
@@ -50,21 +71,17 @@ class HttpClient {
 	 * @param url URL to POST to.
 	 * @param cookies Cookies to send with the request.
 	 * @param data POST parameters.
-	 * @return <code>Response</code> associated with the result of the request.
+	 * @return <code>HttpResponse</code> associated with the result of the request.
 	 * @throws IOException in case of errors
 	 */
-	public Response postIgnoringErrors(String url, Map<String, String> cookies, String... data) throws IOException {
-		return execute(Method.POST, url, cookies, true, null, null, null, data);
+	default HttpResponse postIgnoringErrors(String url, Map<String, String> cookies, String... data) throws IOException {
+		return HttpResponse.await(execute(new HttpRequest(Method.POST, url, cookies, true, data)));
 	}
 
-	private Response execute(Method method, String url, Map<String, String> cookies, boolean ignoreErrors, String fileKey, String fileName, InputStream inputStream, String... data) throws IOException {
-		Connection connection = Jsoup.connect(url).timeout(10 * 1000).ignoreContentType(true).ignoreHttpErrors(ignoreErrors).method(method).cookies(cookies).userAgent("Mozilla").data(data);
-		if (fileKey != null) {
-			connection = connection.data(fileKey, fileName, inputStream);
-		}
-		Response response = connection.execute();
-		cookies.putAll(response.cookies());
-		return response;
-	}
+	/**
+	 * Releases the resources held by this client. The default implementation does nothing.
+	 */
+	@Override
+	default void close() { }
 
 }
@@ -0,0 +1,62 @@
+package fr.tunaki.stackoverflow.chat;
+
+/**
+ * This class holds the settings of the connections of a {@link PooledHttpClient} to a host.
+ * @author Tunaki
+ */
+public final class HttpClientSettings {
+
+	/**
+	 * Default settings: 10 seconds to connect and to read, and at most 4 concurrent connections to the host.
+	 */
+	public static final HttpClientSettings DEFAULT = new HttpClientSettings(10_000, 10_000, 4);
+
+	private int connectTimeoutMillis;
+	private int readTimeoutMillis;
+	private int poolSize;
+
+	/**
+	 * Constructs the settings of the connections to a host.
+	 * @param connectTimeoutMillis Timeout, in milliseconds, to establish a connection.
+	 * @param readTimeoutMillis Timeout, in milliseconds, to read data once connected.
+	 * @param poolSize Maximum number of concurrent connections.
+	 */
+	public HttpClientSettings(int connectTimeoutMillis, int readTimeoutMillis, int poolSize) {
+		if (connectTimeoutMillis < 0 || readTimeoutMillis < 0) {
+			throw new IllegalArgumentException("Timeouts cannot be negative");
+		}
+		if (poolSize <= 0) {
+			throw new IllegalArgumentException("Pool size must be strictly positive: " + poolSize);
+		}
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+		this.poolSize = poolSize;
+	}
+
+	/**
+	 * @return Timeout, in milliseconds, to establish a connection.
+	 */
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	/**
+	 * @return Timeout, in milliseconds, to read data once connected.
+	 */
+	public int getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+
+	/**
+	 * @return Maximum number of concurrent connections.
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	@Override
+	public String toString() {
+		return "HttpClientSettings[connectTimeoutMillis=" + connectTimeoutMillis + ", readTimeoutMillis=" + readTimeoutMillis + ", poolSize=" + poolSize + "]";
+	}
+
+}
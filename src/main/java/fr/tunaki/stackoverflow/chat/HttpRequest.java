@@ -0,0 +1,129 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.jsoup.Connection.Method;
+
+/**
+ * This class represents a HTTP request to be executed by a {@link HttpClient}.
+ * <p>The parameters of the request are given as a flat list of alternating names and values. When a file is uploaded, the request
+ * is sent as <code>multipart/form-data</code>.
+ * @author Tunaki
+ */
+public final class HttpRequest {
+
+	private Method method;
+	private String url;
+	private Map<String, String> cookies;
+	private boolean ignoringHttpErrors;
+	private List<String> data;
+	private String fileKey, fileName;
+	private InputStream fileStream;
+
+	/**
+	 * Constructs a request without any file to upload.
+	 * @param method HTTP method of the request.
+	 * @param url URL of the request.
+	 * @param cookies Cookies to send with the request, updated with the cookies set by the server.
+	 * @param ignoringHttpErrors Whether a response code that isn't 2xx should be returned as a response, instead of failing the request.
+	 * @param data Parameters of the request, as alternating names and values.
+	 */
+	public HttpRequest(Method method, String url, Map<String, String> cookies, boolean ignoringHttpErrors, String... data) {
+		this(method, url, cookies, ignoringHttpErrors, null, null, null, data);
+	}
+
+	/**
+	 * Constructs a request uploading the content of the given stream as a file.
+	 * @param method HTTP method of the request.
+	 * @param url URL of the request.
+	 * @param cookies Cookies to send with the request, updated with the cookies set by the server.
+	 * @param fileKey Name of the parameter holding the file.
+	 * @param fileName Name of the file.
+	 * @param fileStream Content of the file.
+	 * @param data Parameters of the request, as alternating names and values.
+	 */
+	public HttpRequest(Method method, String url, Map<String, String> cookies, String fileKey, String fileName, InputStream fileStream, String... data) {
+		this(method, url, cookies, false, fileKey, fileName, fileStream, data);
+	}
+
+	private HttpRequest(Method method, String url, Map<String, String> cookies, boolean ignoringHttpErrors, String fileKey, String fileName, InputStream fileStream, String... data) {
+		if (data.length % 2 != 0) {
+			throw new IllegalArgumentException("Parameters must be given as alternating names and values");
+		}
+		this.method = method;
+		this.url = url;
+		this.cookies = cookies;
+		this.ignoringHttpErrors = ignoringHttpErrors;
+		this.fileKey = fileKey;
+		this.fileName = fileName;
+		this.fileStream = fileStream;
+		this.data = Collections.unmodifiableList(Arrays.asList(data.clone()));
+	}
+
+	/**
+	 * @return HTTP method of this request.
+	 */
+	public Method getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return URL of this request.
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Returns the cookies to send with this request. This map is to be updated with the cookies set by the server.
+	 * @return Cookies of this request.
+	 */
+	public Map<String, String> getCookies() {
+		return cookies;
+	}
+
+	/**
+	 * @return Whether a response code that isn't 2xx should be returned as a response, instead of failing the request.
+	 */
+	public boolean isIgnoringHttpErrors() {
+		return ignoringHttpErrors;
+	}
+
+	/**
+	 * @return Parameters of this request, as alternating names and values.
+	 */
+	public List<String> getData() {
+		return data;
+	}
+
+	/**
+	 * @return Name of the parameter holding the file to upload, or <code>null</code> if there is no file.
+	 */
+	public String getFileKey() {
+		return fileKey;
+	}
+
+	/**
+	 * @return Name of the file to upload, or <code>null</code> if there is no file.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @return Content of the file to upload, or <code>null</code> if there is no file.
+	 */
+	public InputStream getFileStream() {
+		return fileStream;
+	}
+
+	@Override
+	public String toString() {
+		return method + " " + url;
+	}
+
+}
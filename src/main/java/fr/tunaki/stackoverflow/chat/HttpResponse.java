@@ -0,0 +1,86 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+/**
+ * This class represents the response to a {@link HttpRequest}. Its body is fully read.
+ * @author Tunaki
+ */
+public final class HttpResponse {
+
+	private URL url;
+	private int statusCode;
+	private String body;
+
+	/**
+	 * Constructs a response.
+	 * @param url Final URL of the request, after following the redirections.
+	 * @param statusCode HTTP status code of the response.
+	 * @param body Body of the response.
+	 */
+	public HttpResponse(URL url, int statusCode, String body) {
+		this.url = url;
+		this.statusCode = statusCode;
+		this.body = body;
+	}
+
+	/**
+	 * @return Final URL of the request, after following the redirections.
+	 */
+	public URL url() {
+		return url;
+	}
+
+	/**
+	 * @return HTTP status code of this response.
+	 */
+	public int statusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return Body of this response.
+	 */
+	public String body() {
+		return body;
+	}
+
+	/**
+	 * Parses the body of this response as a HTML document.
+	 * @return Parsed document.
+	 */
+	public Document parse() {
+		return Jsoup.parse(body, url.toString());
+	}
+
+	/**
+	 * Waits for the given future response, unwrapping the exception it completed with.
+	 */
+	static HttpResponse await(CompletableFuture<HttpResponse> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the HTTP response");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "HttpResponse[url=" + url + ", statusCode=" + statusCode + "]";
+	}
+
+}
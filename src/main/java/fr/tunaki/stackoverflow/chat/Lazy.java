@@ -0,0 +1,29 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.function.Supplier;
+
+/**
+ * Supplier computing its value on first access, and returning the same value afterwards.
+ * <p>If the computation fails, the exception is propagated to the caller and the value will be computed again on next access.
+ * @author Tunaki
+ * @param <T> Type of the value.
+ */
+final class Lazy<T> implements Supplier<T> {
+
+	private Supplier<T> supplier;
+	private T value;
+
+	Lazy(Supplier<T> supplier) {
+		this.supplier = supplier;
+	}
+
+	@Override
+	public synchronized T get() {
+		if (supplier != null) {
+			value = supplier.get();
+			supplier = null;
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,46 @@
+package fr.tunaki.stackoverflow.chat;
+
+/**
+ * This class represents a listener added to a room, with {@link Room#addEventListener(fr.tunaki.stackoverflow.chat.event.EventType, java.util.function.Consumer)}.
+ * <p>It can be used to remove the listener, and to monitor the events pending for it.
+ * @author Tunaki
+ */
+public final class ListenerRegistration {
+
+	private final EventListenerRegistry registry;
+	private final int eventTypeOrdinal;
+	private final EventListenerQueue<Object> queue;
+
+	ListenerRegistration(EventListenerRegistry registry, int eventTypeOrdinal, EventListenerQueue<Object> queue) {
+		this.registry = registry;
+		this.eventTypeOrdinal = eventTypeOrdinal;
+		this.queue = queue;
+	}
+
+	/**
+	 * Removes the listener: it will not be called for events raised after this call. Events that were already pending for it
+	 * are still delivered.
+	 * <p>Calling this method multiple times has no effect.
+	 */
+	public void remove() {
+		registry.remove(eventTypeOrdinal, queue);
+	}
+
+	/**
+	 * Returns the number of events that were raised, but are still waiting to be processed by this listener.
+	 * @return Number of pending events.
+	 */
+	public int getPendingEventCount() {
+		return queue.size();
+	}
+
+	/**
+	 * Returns the number of events that were discarded, because the queue of pending events of this listener was full.
+	 * @return Number of discarded events.
+	 * @see OverflowPolicy
+	 */
+	public long getDroppedEventCount() {
+		return queue.droppedCount();
+	}
+
+}
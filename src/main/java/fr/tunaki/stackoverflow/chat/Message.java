@@ -1,5 +1,7 @@
 package fr.tunaki.stackoverflow.chat;
 
+import java.util.function.Supplier;
+
 /**
  * This class represents a chat message.
  * <p>The content of the message is either plain or not. A plain content is the original markdown source of the message, whereas
@@ -10,13 +12,15 @@ package fr.tunaki.stackoverflow.chat;
  * <p>A message also contains a reference to the user that posted it. Refer to {@link User}.
  * <p>When a message is deleted, its content and user will always be <code>null</code>, except if the current user is room-owner
  * or it is one of their own message.
+ * <p>Messages built from a chat event only hold the data sent with the event: the user that posted it and the plain content are
+ * then fetched the first time they are requested.
  * @author Tunaki.
  */
 public final class Message {
 
 	private long id;
-	private User user;
-	private String plainContent;
+	private Supplier<User> user;
+	private Supplier<String> plainContent;
 	private String content;
 	private boolean deleted;
 	private int starCount;
@@ -24,6 +28,10 @@ public final class Message {
 	private int editCount;
 
 	Message(long id, User user, String plainContent, String content, boolean deleted, int starCount, boolean pinned, int editCount) {
+		this(id, () -> user, () -> plainContent, content, deleted, starCount, pinned, editCount);
+	}
+
+	Message(long id, Supplier<User> user, Supplier<String> plainContent, String content, boolean deleted, int starCount, boolean pinned, int editCount) {
 		this.id = id;
 		this.user = user;
 		this.plainContent = plainContent;
@@ -34,6 +42,14 @@ public final class Message {
 		this.editCount = editCount;
 	}
 
+	static Message deleted(long id) {
+		return new Message(id, (User) null, (String) null, null, true, 0, false, 0);
+	}
+
+	Message withStars(int starCount, boolean pinned) {
+		return new Message(id, user, plainContent, content, deleted, starCount, pinned, editCount);
+	}
+
 	/**
 	 * Returns the id of this message.
 	 * @return Id of this message.
@@ -45,10 +61,11 @@ public final class Message {
 	/**
 	 * Returns the user that posted this message. This will be <code>null</code> if the current user is not a room-owner
 	 * or this message is not one of their own message.
+	 * <p>For messages built from a chat event, the user is fetched on the first call to this method, which blocks until then.
 	 * @return User that posted this message.
 	 */
 	public User getUser() {
-		return user;
+		return user.get();
 	}
 
 	/**
@@ -57,10 +74,11 @@ public final class Message {
 	 * <p>For example, a reply to a user will appear as <code>:&lt;id&gt;</code> instead of the rendered username, and tags
 	 * will be returned as <code>[tag:java]</code>.
 	 * <p>This will be <code>null</code> if the current user is not a room-owner and this message is not one of their own message.
+	 * <p>For messages built from a chat event, the plain content is fetched on the first call to this method, which blocks until then.
 	 * @return Plain content of this message.
 	 */
 	public String getPlainContent() {
-		return plainContent;
+		return plainContent.get();
 	}
 
 	/**
@@ -0,0 +1,128 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the messages sent within a short window of time into as few chat messages as possible.
+ * <p>Once the window elapses, consecutive messages are joined with new lines, as long as the result fits in a single chat message. Only
+ * single-line messages are merged: replies, fixed-font messages, one-boxed links and messages that are too long to be merged are sent on
+ * their own, in order. The future of each message completes with the id of the chat message that carried its text.
+ * @author Tunaki
+ */
+final class MessageBatcher {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MessageBatcher.class);
+
+	private static final Pattern UNMERGEABLE_PATTERN = Pattern.compile("^(:\\d+ |    |\\t|https?://\\S+$)");
+
+	private final Function<String, CompletableFuture<Long>> sender;
+	private final ScheduledExecutorService scheduler;
+	private final long windowMillis;
+	private final int maxLength;
+
+	private List<PendingMessage> pending = new ArrayList<>();
+
+	/**
+	 * @param sender Function sending the given text as a chat message, returning the id of the last message posted.
+	 * @param scheduler Executor on which the batches are sent.
+	 * @param windowMillis Time, in milliseconds, to wait for other messages before sending a batch.
+	 * @param maxLength Maximum length of a merged chat message.
+	 */
+	MessageBatcher(Function<String, CompletableFuture<Long>> sender, ScheduledExecutorService scheduler, long windowMillis, int maxLength) {
+		this.sender = sender;
+		this.scheduler = scheduler;
+		this.windowMillis = windowMillis;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Submits the given message to be sent with the next batch.
+	 * @param message Content of the message.
+	 * @return A future holding the id of the chat message that carried the given message.
+	 */
+	synchronized CompletableFuture<Long> submit(String message) {
+		if (pending.isEmpty()) {
+			scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+		}
+		CompletableFuture<Long> future = new CompletableFuture<>();
+		pending.add(new PendingMessage(message, future));
+		return future;
+	}
+
+	/**
+	 * Sends all the pending messages now.
+	 */
+	void flush() {
+		List<PendingMessage> batch;
+		synchronized (this) {
+			batch = pending;
+			pending = new ArrayList<>();
+		}
+		if (batch.isEmpty()) return;
+		LOGGER.trace("Sending a batch of {} messages", batch.size());
+		StringBuilder merged = new StringBuilder();
+		List<CompletableFuture<Long>> group = new ArrayList<>();
+		for (PendingMessage message : batch) {
+			boolean mergeable = isMergeable(message.text);
+			if (!group.isEmpty() && (!mergeable || merged.length() + 1 + message.text.length() > maxLength)) {
+				send(merged.toString(), group);
+				merged.setLength(0);
+				group = new ArrayList<>();
+			}
+			if (!mergeable) {
+				send(message.text, Collections.singletonList(message.future));
+				continue;
+			}
+			if (!group.isEmpty()) merged.append('\n');
+			merged.append(message.text);
+			group.add(message.future);
+		}
+		if (!group.isEmpty()) {
+			send(merged.toString(), group);
+		}
+	}
+
+	private boolean isMergeable(String message) {
+		return !message.isEmpty() && message.length() <= maxLength && message.indexOf('\n') < 0 && !UNMERGEABLE_PATTERN.matcher(message).find();
+	}
+
+	private void send(String text, List<CompletableFuture<Long>> futures) {
+		CompletableFuture<Long> result;
+		try {
+			result = sender.apply(text);
+		} catch (RuntimeException e) {
+			result = new CompletableFuture<>();
+			result.completeExceptionally(e);
+		}
+		result.whenComplete((id, thr) -> {
+			for (CompletableFuture<Long> future : futures) {
+				if (thr != null) future.completeExceptionally(thr instanceof CompletionException ? thr.getCause() : thr);
+				else future.complete(id);
+			}
+		});
+	}
+
+	private static final class PendingMessage {
+
+		private final String text;
+		private final CompletableFuture<Long> future;
+
+		PendingMessage(String text, CompletableFuture<Long> future) {
+			this.text = text;
+			this.future = future;
+		}
+
+	}
+
+}
@@ -0,0 +1,167 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.LongFunction;
+
+/**
+ * Iterates over the messages of a room, from the most recent to the oldest, by paging backward through its history.
+ * <p>The chat server returns the messages posted before a given message id, one page at a time. Since each page only gives the cursor of
+ * the next one, the range of message ids is instead split into consecutive segments, which are paged concurrently: each segment pages
+ * backward from its upper bound until it reaches its lower bound. The span of the segments is estimated from the density of the messages
+ * in the pages already fetched, so that a segment holds about one page. At most <code>prefetch</code> segments are fetched ahead of the
+ * consumer: no request is made before the iteration starts, or once it stops.
+ * @author Tunaki
+ */
+final class MessageHistory implements Iterator<Message> {
+
+	private static final long NO_LOWER_BOUND = -1;
+
+	private final LongFunction<CompletableFuture<Page>> pageFetcher;
+	private final int pageSize;
+	private final int prefetch;
+	private final long before;
+
+	private final Deque<CompletableFuture<Segment>> segments = new ArrayDeque<>();
+	private Iterator<Message> current;
+	private long nextUpper;
+	private long span;
+	private boolean started, exhausted;
+
+	/**
+	 * @param pageFetcher Function fetching the page of messages posted before the given message id, or the most recent ones when the id is
+	 * <code>0</code>.
+	 * @param before Id of the message before which to start, or <code>0</code> to start with the most recent message.
+	 * @param pageSize Number of messages in a full page.
+	 * @param prefetch Maximum number of segments fetched ahead of the consumer.
+	 */
+	MessageHistory(LongFunction<CompletableFuture<Page>> pageFetcher, long before, int pageSize, int prefetch) {
+		this.pageFetcher = pageFetcher;
+		this.pageSize = pageSize;
+		this.prefetch = Math.max(1, prefetch);
+		this.before = before;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!started) {
+			// the first segment has no lower bound: it gives the density of the messages for the next ones
+			segments.add(fetchSegment(before, NO_LOWER_BOUND, new ArrayList<>()));
+			started = true;
+		}
+		while (current == null || !current.hasNext()) {
+			if (segments.isEmpty()) return false;
+			Segment segment;
+			try {
+				segment = segments.poll().join();
+			} catch (CompletionException e) {
+				throw e.getCause() instanceof ChatOperationException ? (ChatOperationException) e.getCause() : new ChatOperationException(e.getCause());
+			}
+			onSegment(segment);
+			current = segment.messages.iterator();
+			fill();
+		}
+		return true;
+	}
+
+	@Override
+	public Message next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		return current.next();
+	}
+
+	private void onSegment(Segment segment) {
+		if (segment.endOfHistory) {
+			exhausted = true;
+			segments.clear(); // the segments after the end are empty
+			return;
+		}
+		if (segment.lower == NO_LOWER_BOUND) {
+			nextUpper = segment.oldestId();
+			span = Math.max(pageSize, segment.newestId() - segment.oldestId() + 1);
+		} else {
+			// aims for about one page per segment, without shrinking or growing too fast
+			long estimate = segment.messages.isEmpty() ? span * 4 : span * pageSize / segment.messages.size();
+			span = Math.max(pageSize, Math.min(span * 4, Math.max(span / 4, estimate)));
+		}
+	}
+
+	private void fill() {
+		while (!exhausted && segments.size() < prefetch && nextUpper > 1) {
+			long lower = Math.max(0, nextUpper - span);
+			segments.add(fetchSegment(nextUpper, lower, new ArrayList<>()));
+			nextUpper = lower + 1;
+		}
+	}
+
+	/**
+	 * Fetches the messages whose id is between the given bounds, exclusive, paging backward from the upper bound. A segment reaching
+	 * the end of the history keeps all the messages of its last page, even those below its lower bound, since the segments after it
+	 * are dropped.
+	 * @param messages Messages of the segment already fetched, from the most recent.
+	 */
+	private CompletableFuture<Segment> fetchSegment(long upper, long lower, List<Message> messages) {
+		return pageFetcher.apply(upper).thenCompose(page -> {
+			boolean endOfHistory = page.endOfHistory;
+			long oldest = upper;
+			for (int i = page.messages.size() - 1; i >= 0; i--) {
+				Message message = page.messages.get(i);
+				oldest = Math.min(oldest, message.getId());
+				if (message.getId() > lower || endOfHistory) messages.add(message);
+			}
+			if (endOfHistory || lower == NO_LOWER_BOUND || oldest <= lower) {
+				return CompletableFuture.completedFuture(new Segment(lower, messages, endOfHistory));
+			}
+			return fetchSegment(oldest, lower, messages);
+		});
+	}
+
+	/**
+	 * Page of the history, as returned by the chat server. A page can hold fewer messages than requested, since the server also counts
+	 * the entries that are not messages: only the server tells whether the end of the history is reached.
+	 */
+	static final class Page {
+
+		private final List<Message> messages;
+		private final boolean endOfHistory;
+
+		/**
+		 * @param messages Messages of the page, sorted by increasing id.
+		 * @param endOfHistory Whether there are no messages before the ones of this page.
+		 */
+		Page(List<Message> messages, boolean endOfHistory) {
+			this.messages = messages;
+			this.endOfHistory = endOfHistory;
+		}
+
+	}
+
+	private static final class Segment {
+
+		private final long lower;
+		private final List<Message> messages;
+		private final boolean endOfHistory;
+
+		Segment(long lower, List<Message> messages, boolean endOfHistory) {
+			this.lower = lower;
+			this.messages = messages;
+			this.endOfHistory = endOfHistory;
+		}
+
+		long newestId() {
+			return messages.get(0).getId();
+		}
+
+		long oldestId() {
+			return messages.get(messages.size() - 1).getId();
+		}
+
+	}
+
+}
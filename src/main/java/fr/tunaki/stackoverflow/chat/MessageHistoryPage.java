@@ -0,0 +1,76 @@
+package fr.tunaki.stackoverflow.chat;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+/**
+ * Data of a message read from its history page (<code>/messages/{messageId}/history</code>), which lists every version of the message.
+ * @author Tunaki
+ */
+final class MessageHistoryPage {
+
+	private final long userId;
+	private final String plainContent;
+	private final boolean deleted;
+	private final int starCount;
+	private final boolean pinned;
+	private final int editCount;
+
+	private MessageHistoryPage(long userId, String plainContent, boolean deleted, int starCount, boolean pinned, int editCount) {
+		this.userId = userId;
+		this.plainContent = plainContent;
+		this.deleted = deleted;
+		this.starCount = starCount;
+		this.pinned = pinned;
+		this.editCount = editCount;
+	}
+
+	/**
+	 * Parses the given history page.
+	 * @param document History page of a message.
+	 * @return Data of the message.
+	 */
+	static MessageHistoryPage parse(Document document) {
+		Elements contents = document.select(".messages .content");
+		String plainContent = contents.get(1).select(".message-source").first().text();
+		Element starVoteContainer = document.select(".messages .flash .stars.vote-count-container").first();
+		int starCount;
+		if (starVoteContainer == null) {
+			starCount = 0;
+		} else {
+			Element times = starVoteContainer.select(".times").first();
+			starCount = times == null || !times.hasText() ? 1 : Integer.parseInt(times.text());
+		}
+		boolean pinned = !document.select(".vote-count-container.stars.owner-star").isEmpty();
+		int editCount = contents.size() - 2; // -2 to remove the current version and the first version
+		long userId = Long.parseLong(document.select(".username > a").first().attr("href").split("/")[2]);
+		boolean deleted = contents.stream().anyMatch(e -> e.getElementsByTag("b").html().equals("deleted"));
+		return new MessageHistoryPage(userId, plainContent, deleted, starCount, pinned, editCount);
+	}
+
+	long getUserId() {
+		return userId;
+	}
+
+	String getPlainContent() {
+		return plainContent;
+	}
+
+	boolean isDeleted() {
+		return deleted;
+	}
+
+	int getStarCount() {
+		return starCount;
+	}
+
+	boolean isPinned() {
+		return pinned;
+	}
+
+	int getEditCount() {
+		return editCount;
+	}
+
+}
@@ -0,0 +1,169 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits a message too long to be sent as a single chat message into several parts.
+ * <p>Messages are broken on the last space that fits in a part, and never inside a non-breaking region: Markdown links, inline code and
+ * code spans delimited by several backticks. The message is scanned once for those regions, whose offsets are kept as primitives, and
+ * each part is extracted once, so that splitting is linear in the length of the message.
+ * <p>Messages having multiple lines are never split, as the chat server shows them as a whole.
+ * @author Tunaki
+ */
+final class MessageSplitter {
+
+	private static final Pattern MARKDOWN_LINK_PATTERN = Pattern.compile("\\[(\\\\]|[^\\]])+\\]\\((https?:)?//(\\\\\\)|\\\\\\(|[^\\s)(])+\\)"); // oh dear god
+
+	private MessageSplitter() { }
+
+	/**
+	 * Splits the given message into parts of at most the given length.
+	 * @param message Message to split.
+	 * @param maxPartLength Maximum length of a part.
+	 * @return Parts of the message, in order.
+	 * @throws ChatOperationException if the message cannot be broken into adequate parts, because a non-breaking region is too long.
+	 */
+	static List<String> split(String message, int maxPartLength) {
+		if (message.length() <= maxPartLength || isMultiLine(message)) {
+			return Arrays.asList(message);
+		}
+		int[] regions = nonBreakingRegions(message);
+		List<String> parts = new ArrayList<>(message.length() / maxPartLength + 1);
+		int from = 0, region = 0, length = message.length();
+		while (length - from > maxPartLength) {
+			int limit = from + maxPartLength;
+			int breakIndex = limit;
+			while (breakIndex >= from && message.charAt(breakIndex) != ' ') {
+				breakIndex--;
+			}
+			int end, next;
+			if (breakIndex < from) { // no space at all, let's try to break at the max possible
+				breakIndex = end = next = limit;
+			} else {
+				end = breakIndex;
+				next = breakIndex + 1;
+			}
+			while (region < regions.length && regions[region + 1] <= from) {
+				region += 2;
+			}
+			for (int r = region; r < regions.length && regions[r] < breakIndex; r += 2) {
+				if (breakIndex < regions[r + 1]) {
+					// break right before the non-breaking region, dropping the space before it
+					next = regions[r];
+					end = next > from && message.charAt(next - 1) == ' ' ? next - 1 : next;
+					break;
+				}
+			}
+			if (end <= from) {
+				// we did our best, but this part starts with a non breaking region, and ends further than what is allowed...
+				throw new ChatOperationException("Cannot send message: it is longer than " + maxPartLength + " characters and cannot be broken into adequate parts");
+			}
+			parts.add(message.substring(from, end));
+			from = next;
+		}
+		if (from < length) {
+			parts.add(message.substring(from));
+		}
+		return parts;
+	}
+
+	/**
+	 * Tells whether the given message, once trimmed, has several lines.
+	 */
+	private static boolean isMultiLine(String message) {
+		int start = 0, end = message.length() - 1;
+		while (start <= end && message.charAt(start) <= ' ') start++;
+		while (end >= start && message.charAt(end) <= ' ') end--;
+		int newLine = message.indexOf('\n', start);
+		return newLine >= 0 && newLine < end;
+	}
+
+	/**
+	 * Returns the non-breaking regions of the given message, sorted and without overlaps, as a flat array of alternating start
+	 * (inclusive) and end (exclusive) offsets.
+	 */
+	private static int[] nonBreakingRegions(String message) {
+		int[] links = new int[8];
+		int linkCount = 0;
+		Matcher matcher = MARKDOWN_LINK_PATTERN.matcher(message);
+		while (matcher.find()) {
+			if (linkCount + 2 > links.length) links = Arrays.copyOf(links, links.length * 2);
+			links[linkCount++] = matcher.start();
+			links[linkCount++] = matcher.end();
+		}
+		int[] code = codeSpans(message);
+		return merge(links, linkCount, code, code.length);
+	}
+
+	/**
+	 * Finds the code spans of the given message. A span starts with a run of backticks and ends with the next run of the same number
+	 * of backticks; an opening run without matching closing run is a literal. Each run is linked to the next run of the same length, so
+	 * that unmatched runs don't cause the rest of the message to be rescanned.
+	 */
+	private static int[] codeSpans(String message) {
+		int[] runs = new int[8];
+		int runCount = 0;
+		for (int i = 0, length = message.length(); i < length; ) {
+			if (message.charAt(i) != '`') {
+				i++;
+				continue;
+			}
+			int start = i;
+			while (i < length && message.charAt(i) == '`') i++;
+			if (runCount + 2 > runs.length) runs = Arrays.copyOf(runs, runs.length * 2);
+			runs[runCount++] = start;
+			runs[runCount++] = i;
+		}
+		int[] nextSameLength = new int[runCount / 2];
+		Map<Integer, Integer> lastByLength = new HashMap<>();
+		for (int r = runCount / 2 - 1; r >= 0; r--) {
+			int runLength = runs[2 * r + 1] - runs[2 * r];
+			Integer next = lastByLength.put(runLength, r);
+			nextSameLength[r] = next == null ? -1 : next;
+		}
+		int[] spans = new int[runCount];
+		int spanCount = 0;
+		for (int r = 0; r < nextSameLength.length; ) {
+			int closing = nextSameLength[r];
+			if (closing < 0) {
+				r++;
+				continue;
+			}
+			spans[spanCount++] = runs[2 * r];
+			spans[spanCount++] = runs[2 * closing + 1];
+			r = closing + 1;
+		}
+		return Arrays.copyOf(spans, spanCount);
+	}
+
+	private static int[] merge(int[] a, int aCount, int[] b, int bCount) {
+		int[] merged = new int[aCount + bCount];
+		int count = 0, i = 0, j = 0;
+		while (i < aCount || j < bCount) {
+			int start, end;
+			if (j >= bCount || (i < aCount && a[i] <= b[j])) {
+				start = a[i];
+				end = a[i + 1];
+				i += 2;
+			} else {
+				start = b[j];
+				end = b[j + 1];
+				j += 2;
+			}
+			if (count > 0 && start < merged[count - 1]) {
+				merged[count - 1] = Math.max(merged[count - 1], end);
+			} else {
+				merged[count++] = start;
+				merged[count++] = end;
+			}
+		}
+		return Arrays.copyOf(merged, count);
+	}
+
+}
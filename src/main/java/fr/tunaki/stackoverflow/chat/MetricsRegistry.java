@@ -0,0 +1,141 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of the meters recording the activity of a {@link StackExchangeClient} and of its rooms. It can be implemented on top of a
+ * metrics library (for example by delegating to a Micrometer <code>MeterRegistry</code>) and given to
+ * {@link StackExchangeClient#setMetricsRegistry(MetricsRegistry)}.
+ * <p>Meters are identified by a name and by tags, given as alternating keys and values (example: <code>"room", "139"</code>).
+ * Asking twice for the same name and tags is expected to return the same meter. Meters are asked for once, when a room is joined or
+ * when a new value of a tag is first seen, and then updated on the hot paths: their methods must be cheap and thread-safe.
+ * <p>The following meters are recorded, all tagged with the <code>host</code> and, except for the WebSocket ones, the <code>room</code>:
+ * <ul>
+ * <li><code>chat.events.received</code> (counter, by event <code>type</code>): chat events received.</li>
+ * <li><code>chat.listener.dispatch</code> (timer, by event <code>type</code>): time an event waited in the queue of a listener before
+ * being delivered to it.</li>
+ * <li><code>chat.listener.queue.depth</code> (summary, by event <code>type</code>): number of events pending for a listener, each time
+ * an event is queued.</li>
+ * <li><code>chat.http.requests</code> (timer, by <code>method</code>, <code>endpoint</code> and <code>status</code>): HTTP requests
+ * sent to the chat server. The endpoint is the path of the URL where ids are replaced by <code>{id}</code> (example:
+ * <code>/chats/{id}/messages/new</code>), and the status is <code>IO_ERROR</code> when no response was received.</li>
+ * <li><code>chat.throttle.wait</code> (timer): waits imposed by the chat server when an action was throttled.</li>
+ * <li><code>chat.fkey.refreshes</code> (counter): retrievals of the fkey of the room.</li>
+ * <li><code>chat.websocket.frame.parse</code> (timer): parsing of the frames received on the WebSocket, excluding the handling of
+ * their events by the rooms.</li>
+ * <li><code>chat.websocket.idle</code> (timer): time elapsed without receiving anything on the WebSocket, recorded when a frame is
+ * received.</li>
+ * <li><code>chat.websocket.reconnects</code> (counter): attempts to re-open the WebSocket.</li>
+ * </ul>
+ * <p>The default registry, {@link #NOOP}, records nothing: with it, no meter is updated and nothing is allocated to record them.
+ * @author Tunaki
+ */
+public interface MetricsRegistry {
+
+	/**
+	 * Registry recording nothing.
+	 */
+	MetricsRegistry NOOP = new MetricsRegistry() {
+
+		private final Counter counter = () -> { };
+		private final Timer timer = (duration, unit) -> { };
+		private final Summary summary = amount -> { };
+
+		@Override
+		public Counter counter(String name, String... tags) {
+			return counter;
+		}
+
+		@Override
+		public Timer timer(String name, String... tags) {
+			return timer;
+		}
+
+		@Override
+		public Summary summary(String name, String... tags) {
+			return summary;
+		}
+
+		@Override
+		public boolean isEnabled() {
+			return false;
+		}
+
+	};
+
+	/**
+	 * Returns the counter with the given name and tags.
+	 * @param name Name of the counter.
+	 * @param tags Tags of the counter, as alternating keys and values.
+	 * @return Counter.
+	 */
+	Counter counter(String name, String... tags);
+
+	/**
+	 * Returns the timer with the given name and tags.
+	 * @param name Name of the timer.
+	 * @param tags Tags of the timer, as alternating keys and values.
+	 * @return Timer.
+	 */
+	Timer timer(String name, String... tags);
+
+	/**
+	 * Returns the distribution summary with the given name and tags.
+	 * @param name Name of the summary.
+	 * @param tags Tags of the summary, as alternating keys and values.
+	 * @return Distribution summary.
+	 */
+	Summary summary(String name, String... tags);
+
+	/**
+	 * Tells whether this registry records anything. When it doesn't, the measures are not even taken. The default implementation
+	 * returns <code>true</code>.
+	 * @return Whether this registry records the meters.
+	 */
+	default boolean isEnabled() {
+		return true;
+	}
+
+	/**
+	 * Counter of occurrences.
+	 */
+	@FunctionalInterface
+	interface Counter {
+
+		/**
+		 * Increments this counter by one.
+		 */
+		void increment();
+
+	}
+
+	/**
+	 * Timer recording durations.
+	 */
+	@FunctionalInterface
+	interface Timer {
+
+		/**
+		 * Records the given duration.
+		 * @param duration Duration.
+		 * @param unit Unit of the duration.
+		 */
+		void record(long duration, TimeUnit unit);
+
+	}
+
+	/**
+	 * Distribution summary recording amounts, such as sizes.
+	 */
+	@FunctionalInterface
+	interface Summary {
+
+		/**
+		 * Records the given amount.
+		 * @param amount Amount.
+		 */
+		void record(long amount);
+
+	}
+
+}
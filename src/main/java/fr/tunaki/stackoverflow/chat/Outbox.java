@@ -0,0 +1,355 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Durable journal of the actions made in a room, so that the actions not yet delivered to the chat server when the process stops are
+ * delivered again once it restarts.
+ * <p>The journal is an append-only file holding one JSON record per line: an action is recorded before it is delivered, and its outcome
+ * once the chat server answered. Writes are forced to disk in groups, at most every {@value #SYNC_WINDOW_MILLIS} ms: an action is only
+ * delivered once its record is durable. When enough outcomes were recorded, the journal is compacted by rewriting it with only the
+ * pending actions and the most recent outcomes.
+ * <p>Each action has an idempotency key: submitting an action whose key is already pending, or was recently delivered, returns the result
+ * of the first one instead of delivering it again. Delivery is at least once: an action delivered right before the process stopped, but
+ * whose outcome was not recorded yet, is delivered again.
+ * @author Tunaki
+ */
+final class Outbox implements AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Outbox.class);
+
+	private static final int SYNC_WINDOW_MILLIS = 10;
+	private static final int COMPACTION_THRESHOLD = 1_000;
+	private static final int RETAINED_OUTCOMES = 1_000;
+
+	private final Path file;
+	private final ScheduledExecutorService scheduler;
+
+	private FileChannel channel;
+	private final Map<String, Action> pending = new LinkedHashMap<>();
+	private final Map<String, CompletableFuture<Long>> inflight = new HashMap<>();
+	private final LinkedHashMap<String, Long> delivered = new LinkedHashMap<String, Long>() {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > RETAINED_OUTCOMES;
+		}
+	};
+	private List<CompletableFuture<Void>> unsynced = new ArrayList<>();
+	private final Object syncLock = new Object();
+	private int outcomesSinceCompaction;
+
+	/**
+	 * Opens the given journal, creating it if it doesn't exist, and loads the actions it holds.
+	 * @param file Journal file.
+	 * @param scheduler Executor on which the writes are forced to disk.
+	 * @throws IOException if the journal cannot be read or opened.
+	 */
+	Outbox(Path file, ScheduledExecutorService scheduler) throws IOException {
+		this.file = file;
+		this.scheduler = scheduler;
+		if (Files.exists(file)) {
+			load();
+			terminateLastRecord();
+		}
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	private void load() throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) continue;
+				JsonObject record;
+				try {
+					record = new JsonParser().parse(line).getAsJsonObject();
+				} catch (JsonParseException | IllegalStateException e) {
+					LOGGER.warn("Ignoring the truncated record '{}' of the outbox {}", line, file);
+					continue;
+				}
+				String key = record.get("key").getAsString();
+				switch (record.get("type").getAsString()) {
+				case "done":
+					pending.remove(key);
+					delivered.put(key, record.get("id").getAsLong());
+					outcomesSinceCompaction++;
+					break;
+				case "failed":
+					pending.remove(key);
+					outcomesSinceCompaction++;
+					break;
+				default:
+					pending.put(key, new Action(record));
+				}
+			}
+		}
+		LOGGER.debug("Loaded {} pending actions from the outbox {}", pending.size(), file);
+	}
+
+	/**
+	 * Ends the last line of the journal when the process stopped while writing it, so that the next record starts on its own line
+	 * instead of being appended to the truncated one.
+	 */
+	private void terminateLastRecord() throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long size = channel.size();
+			if (size == 0) return;
+			ByteBuffer last = ByteBuffer.allocate(1);
+			channel.read(last, size - 1);
+			if (last.get(0) != '\n') {
+				channel.write(ByteBuffer.wrap(new byte[] { '\n' }), size);
+			}
+		}
+	}
+
+	/**
+	 * Returns the actions that were recorded, but whose outcome wasn't, in the order they were submitted.
+	 * @return Pending actions.
+	 */
+	synchronized List<Action> pending() {
+		return new ArrayList<>(pending.values());
+	}
+
+	/**
+	 * Records the given action, has it delivered once its record is durable, and records its outcome.
+	 * <p>The delivery function is called right away, along with a future completing once the record is durable, so that the action can
+	 * be queued among the actions that don't go through the outbox: the action must not reach the chat server before that future
+	 * completes, and is not delivered if it completes exceptionally. Records become durable in the order they were written.
+	 * @param action Action to submit.
+	 * @param delivery Function delivering the action to the chat server once the given future completes, returning the id of the message.
+	 * @return A future holding the id of the message.
+	 */
+	CompletableFuture<Long> submit(Action action, BiFunction<Action, CompletableFuture<Void>, CompletableFuture<Long>> delivery) {
+		CompletableFuture<Void> durable;
+		CompletableFuture<Long> result = new CompletableFuture<>();
+		synchronized (this) {
+			Long id = delivered.get(action.key);
+			if (id != null) return CompletableFuture.completedFuture(id);
+			CompletableFuture<Long> existing = inflight.get(action.key);
+			if (existing != null) return existing;
+			inflight.put(action.key, result);
+			if (pending.containsKey(action.key)) { // replayed
+				durable = CompletableFuture.completedFuture(null);
+			} else {
+				pending.put(action.key, action);
+				durable = append(action.toJson());
+			}
+		}
+		delivery.apply(action, durable).whenComplete((id, thr) -> {
+			recordOutcome(action.key, id);
+			if (thr != null) result.completeExceptionally(thr instanceof CompletionException ? thr.getCause() : thr);
+			else result.complete(id);
+		});
+		return result;
+	}
+
+	private synchronized void recordOutcome(String key, Long id) {
+		inflight.remove(key);
+		pending.remove(key);
+		JsonObject record = new JsonObject();
+		record.addProperty("key", key);
+		if (id != null) {
+			delivered.put(key, id);
+			record.addProperty("type", "done");
+			record.addProperty("id", id);
+		} else {
+			record.addProperty("type", "failed");
+		}
+		append(record);
+		if (++outcomesSinceCompaction >= COMPACTION_THRESHOLD) {
+			compact();
+		}
+	}
+
+	private synchronized CompletableFuture<Void> append(JsonObject record) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap((record.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			LOGGER.error("Cannot write to the outbox {}", file, e);
+			future.completeExceptionally(new ChatOperationException("Cannot write to the outbox " + file, e));
+			return future;
+		}
+		if (unsynced.isEmpty()) {
+			scheduler.schedule(this::sync, SYNC_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		unsynced.add(future);
+		return future;
+	}
+
+	/**
+	 * Forces the records written since the last sync to disk. Syncs run on the threads of the scheduler, one at a time, so that the
+	 * batches of records become durable in the order they were written.
+	 */
+	private void sync() {
+		synchronized (syncLock) {
+			List<CompletableFuture<Void>> batch;
+			IOException failure = null;
+			synchronized (this) {
+				batch = unsynced;
+				unsynced = new ArrayList<>();
+				if (batch.isEmpty()) return;
+				try {
+					channel.force(false);
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			if (failure != null) {
+				LOGGER.error("Cannot force the outbox {} to disk", file, failure);
+				ChatOperationException exception = new ChatOperationException("Cannot write to the outbox " + file, failure);
+				batch.forEach(f -> f.completeExceptionally(exception));
+			} else {
+				batch.forEach(f -> f.complete(null));
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the journal with only the pending actions and the retained outcomes, then atomically replaces it.
+	 */
+	private synchronized void compact() {
+		Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+		try {
+			StringBuilder sb = new StringBuilder();
+			for (Map.Entry<String, Long> entry : delivered.entrySet()) {
+				JsonObject record = new JsonObject();
+				record.addProperty("type", "done");
+				record.addProperty("key", entry.getKey());
+				record.addProperty("id", entry.getValue());
+				sb.append(record).append('\n');
+			}
+			for (Action action : pending.values()) {
+				sb.append(action.toJson()).append('\n');
+			}
+			try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+				out.force(true);
+			}
+			channel.force(false);
+			channel.close();
+			Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			outcomesSinceCompaction = 0;
+			LOGGER.debug("Compacted the outbox {} to {} pending actions", file, pending.size());
+		} catch (IOException e) {
+			LOGGER.error("Cannot compact the outbox {}", file, e);
+			try {
+				if (!channel.isOpen()) {
+					channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+				}
+			} catch (IOException e2) {
+				LOGGER.error("Cannot reopen the outbox {}", file, e2);
+			}
+		}
+	}
+
+	/**
+	 * Forces the pending writes to disk and closes the journal. The actions still waiting for their outcome are kept pending, and those
+	 * whose record couldn't be forced to disk are not delivered.
+	 */
+	@Override
+	public synchronized void close() {
+		IOException failure = null;
+		try {
+			channel.force(false);
+		} catch (IOException e) {
+			failure = e;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOGGER.error("Cannot close the outbox {}", file, e);
+		}
+		Collection<CompletableFuture<Void>> waiting = unsynced;
+		unsynced = new ArrayList<>();
+		if (failure != null) {
+			LOGGER.error("Cannot force the outbox {} to disk", file, failure);
+			ChatOperationException exception = new ChatOperationException("Cannot write to the outbox " + file, failure);
+			waiting.forEach(f -> f.completeExceptionally(exception));
+		} else {
+			waiting.forEach(f -> f.complete(null));
+		}
+	}
+
+	/**
+	 * An action recorded in the outbox: sending a new message, or editing a message.
+	 */
+	static final class Action {
+
+		private final String key;
+		private final String type;
+		private final long messageId;
+		private final String text;
+
+		Action(String key, String type, long messageId, String text) {
+			this.key = key;
+			this.type = type;
+			this.messageId = messageId;
+			this.text = text;
+		}
+
+		private Action(JsonObject record) {
+			this(record.get("key").getAsString(), record.get("type").getAsString(), record.has("messageId") ? record.get("messageId").getAsLong() : 0, record.get("text").getAsString());
+		}
+
+		String getKey() {
+			return key;
+		}
+
+		String getType() {
+			return type;
+		}
+
+		long getMessageId() {
+			return messageId;
+		}
+
+		String getText() {
+			return text;
+		}
+
+		private JsonObject toJson() {
+			JsonObject record = new JsonObject();
+			record.addProperty("type", type);
+			record.addProperty("key", key);
+			if (messageId != 0) record.addProperty("messageId", messageId);
+			record.addProperty("text", text);
+			return record;
+		}
+
+	}
+
+}
@@ -0,0 +1,27 @@
+package fr.tunaki.stackoverflow.chat;
+
+/**
+ * This enum represents what happens when an event is raised for a listener whose queue of pending events is full.
+ * <p>Each listener added to a {@link Room} has its own bounded queue of events: the events are delivered to a listener one at a time,
+ * in the order they were raised. When a listener is slower than the rate at which events are raised, its queue fills up.
+ * @author Tunaki
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * The reception of chat events is paused until the listener has room for the new event. This slows down all the other listeners
+	 * of the chat host, but no event is lost.
+	 */
+	BLOCK,
+
+	/**
+	 * The oldest pending event of the listener is discarded to make room for the new event.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * The new event is discarded.
+	 */
+	DROP_NEWEST
+
+}
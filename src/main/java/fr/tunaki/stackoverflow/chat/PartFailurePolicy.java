@@ -0,0 +1,22 @@
+package fr.tunaki.stackoverflow.chat;
+
+/**
+ * This enum represents what happens when a part of a message, too long to be sent as a single chat message, fails to be sent.
+ * <p>Long messages are split into several parts, sent one after the other, in order. Once a part fails, the following parts are never
+ * sent.
+ * @author Tunaki
+ */
+public enum PartFailurePolicy {
+
+	/**
+	 * The parts already sent are kept in the room.
+	 */
+	STOP,
+
+	/**
+	 * The parts already sent are deleted, so that the room doesn't show an incomplete message. Parts that can no longer be deleted,
+	 * for example because they were posted too long ago, are kept.
+	 */
+	DELETE_SENT_PARTS
+
+}
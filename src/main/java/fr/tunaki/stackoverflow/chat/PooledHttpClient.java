@@ -0,0 +1,300 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.jsoup.Connection.Method;
+import org.jsoup.HttpStatusException;
+
+/**
+ * Default {@link HttpClient}, keeping the connections to each host alive between requests.
+ * <p>Responses are always fully read and their stream closed, so that the underlying connection, along with its TLS session, is
+ * handed back to the JDK keep-alive cache and reused by the next request to the same host. Each chat host has its own pool of at most
+ * {@link HttpClientSettings#getPoolSize()} connections, with its own timeouts; requests to other hosts, like the OpenID provider, use
+ * the default settings. Requests exceeding the pool size are queued.
+ * <p>The JDK keeps at most <code>http.maxConnections</code> (5 by default) idle connections per host: this system property should be
+ * raised when a pool size higher than that is configured.
+ * @author Tunaki
+ */
+public final class PooledHttpClient implements HttpClient {
+
+	private static final String USER_AGENT = "Mozilla";
+	private static final int MAX_REDIRECTS = 20;
+	private static final int POOL_KEEP_ALIVE_SECONDS = 60;
+
+	private final Pool defaultPool;
+	private final Map<String, Pool> hostPools = new HashMap<>();
+
+	/**
+	 * Constructs a client using the {@link HttpClientSettings#DEFAULT default settings} for all the hosts.
+	 */
+	public PooledHttpClient() {
+		this(HttpClientSettings.DEFAULT, new EnumMap<>(ChatHost.class));
+	}
+
+	/**
+	 * Constructs a client with specific settings for some chat hosts.
+	 * @param defaultSettings Settings for the chat hosts not present in the given map, and for the requests to other hosts.
+	 * @param hostSettings Settings for each chat host.
+	 */
+	public PooledHttpClient(HttpClientSettings defaultSettings, Map<ChatHost, HttpClientSettings> hostSettings) {
+		defaultPool = new Pool(defaultSettings);
+		for (ChatHost host : ChatHost.values()) {
+			hostPools.put(URI.create(host.getBaseUrl()).getHost(), new Pool(hostSettings.getOrDefault(host, defaultSettings)));
+		}
+	}
+
+	@Override
+	public CompletableFuture<HttpResponse> execute(HttpRequest request) {
+		CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+		Pool pool;
+		try {
+			pool = hostPools.getOrDefault(new URL(request.getUrl()).getHost(), defaultPool);
+		} catch (MalformedURLException e) {
+			future.completeExceptionally(e);
+			return future;
+		}
+		try {
+			pool.executor.execute(() -> {
+				try {
+					future.complete(execute(request, pool.settings));
+				} catch (IOException | RuntimeException e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Shuts down the threads of this client. Pending requests are still executed.
+	 */
+	@Override
+	public void close() {
+		defaultPool.executor.shutdown();
+		hostPools.values().forEach(pool -> pool.executor.shutdown());
+	}
+
+	private static HttpResponse execute(HttpRequest request, HttpClientSettings settings) throws IOException {
+		Method method = request.getMethod();
+		List<String> data = request.getData();
+		boolean withFile = request.getFileKey() != null;
+		URL url = new URL(request.getUrl());
+		if (method == Method.GET && !data.isEmpty()) {
+			url = new URL(request.getUrl() + (url.getQuery() == null ? "?" : "&") + encode(data));
+		}
+		for (int redirects = 0; ; redirects++) {
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestMethod(method.name());
+			connection.setInstanceFollowRedirects(false); // redirections are followed here, to keep the cookies they set
+			connection.setConnectTimeout(settings.getConnectTimeoutMillis());
+			connection.setReadTimeout(settings.getReadTimeoutMillis());
+			connection.setRequestProperty("User-Agent", USER_AGENT);
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+			if (!request.getCookies().isEmpty()) {
+				connection.setRequestProperty("Cookie", cookieHeader(request.getCookies()));
+			}
+			if (method == Method.POST) {
+				connection.setDoOutput(true);
+				if (withFile) {
+					writeMultipart(connection, request);
+				} else {
+					connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+					try (OutputStream out = connection.getOutputStream()) {
+						out.write(encode(data).getBytes(StandardCharsets.UTF_8));
+					}
+				}
+			}
+			int status = connection.getResponseCode();
+			storeCookies(connection, request.getCookies());
+			String location = connection.getHeaderField("Location");
+			if (status >= 300 && status < 400 && status != HttpURLConnection.HTTP_NOT_MODIFIED && location != null) {
+				readBody(connection, status); // drains the stream so that the connection can be reused
+				if (redirects >= MAX_REDIRECTS) {
+					throw new IOException("Too many redirects occurred trying to load URL " + request.getUrl());
+				}
+				url = new URL(url, location.replace(" ", "%20"));
+				if (status != 307 && status != 308) {
+					method = Method.GET;
+					withFile = false;
+				}
+				continue;
+			}
+			String body = readBody(connection, status);
+			if (!request.isIgnoringHttpErrors() && (status < 200 || status >= 400)) {
+				throw new HttpStatusException("HTTP error fetching URL", status, url.toString());
+			}
+			return new HttpResponse(url, status, body);
+		}
+	}
+
+	private static String readBody(HttpURLConnection connection, int status) throws IOException {
+		InputStream stream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		if (stream == null) return "";
+		if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+			stream = new GZIPInputStream(stream);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(connection.getContentLength(), 8192));
+		try (InputStream in = stream) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		}
+		return new String(out.toByteArray(), charset(connection.getContentType()));
+	}
+
+	private static Charset charset(String contentType) {
+		if (contentType != null) {
+			for (String parameter : contentType.split(";")) {
+				parameter = parameter.trim();
+				if (parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+					try {
+						return Charset.forName(parameter.substring(8).replace("\"", ""));
+					} catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+						break;
+					}
+				}
+			}
+		}
+		return StandardCharsets.UTF_8;
+	}
+
+	/**
+	 * Stores the cookies set by the given response. A cookie set with an empty value, or already expired, is cleared by the server:
+	 * it is removed.
+	 */
+	private static void storeCookies(HttpURLConnection connection, Map<String, String> cookies) {
+		for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+			if (!"Set-Cookie".equalsIgnoreCase(header.getKey())) continue;
+			for (String cookie : header.getValue()) {
+				String[] attributes = cookie.split(";");
+				String pair = attributes[0];
+				int equals = pair.indexOf('=');
+				if (equals <= 0) continue;
+				String name = pair.substring(0, equals).trim(), value = pair.substring(equals + 1).trim();
+				if (value.isEmpty() || isExpired(attributes)) {
+					cookies.remove(name);
+				} else {
+					cookies.put(name, value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tells whether the cookie having the given attributes is expired. Like in browsers, <code>Max-Age</code> prevails over
+	 * <code>Expires</code>, and invalid attributes are ignored.
+	 */
+	private static boolean isExpired(String[] attributes) {
+		Boolean expired = null;
+		for (int i = 1; i < attributes.length; i++) {
+			String attribute = attributes[i].trim();
+			int equals = attribute.indexOf('=');
+			if (equals < 0) continue;
+			String name = attribute.substring(0, equals).trim(), value = attribute.substring(equals + 1).trim();
+			try {
+				if (name.equalsIgnoreCase("Max-Age")) {
+					return Long.parseLong(value) <= 0;
+				}
+				if (name.equalsIgnoreCase("Expires")) {
+					// some servers separate the parts of the date with dashes
+					expired = !ZonedDateTime.parse(value.replace('-', ' '), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().isAfter(Instant.now());
+				}
+			} catch (NumberFormatException | DateTimeParseException e) {
+				// ignored
+			}
+		}
+		return expired != null && expired;
+	}
+
+	private static String cookieHeader(Map<String, String> cookies) {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> cookie : cookies.entrySet()) {
+			if (sb.length() > 0) sb.append("; ");
+			sb.append(cookie.getKey()).append('=').append(cookie.getValue());
+		}
+		return sb.toString();
+	}
+
+	private static String encode(List<String> data) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < data.size(); i += 2) {
+			if (i > 0) sb.append('&');
+			sb.append(URLEncoder.encode(data.get(i), "UTF-8")).append('=').append(URLEncoder.encode(data.get(i + 1), "UTF-8"));
+		}
+		return sb.toString();
+	}
+
+	private static void writeMultipart(HttpURLConnection connection, HttpRequest request) throws IOException {
+		String boundary = "----" + UUID.randomUUID().toString().replace("-", "");
+		connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+		List<String> data = request.getData();
+		try (OutputStream out = connection.getOutputStream()) {
+			for (int i = 0; i < data.size(); i += 2) {
+				write(out, "--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + data.get(i) + "\"\r\n\r\n" + data.get(i + 1) + "\r\n");
+			}
+			write(out, "--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + request.getFileKey() + "\"; filename=\"" + request.getFileName() + "\"\r\nContent-Type: application/octet-stream\r\n\r\n");
+			byte[] buffer = new byte[8192];
+			int read;
+			InputStream in = request.getFileStream();
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			write(out, "\r\n--" + boundary + "--\r\n");
+		}
+	}
+
+	private static void write(OutputStream out, String s) throws IOException {
+		out.write(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static final class Pool {
+
+		private final HttpClientSettings settings;
+		private final ExecutorService executor;
+
+		Pool(HttpClientSettings settings) {
+			this.settings = settings;
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(settings.getPoolSize(), settings.getPoolSize(), POOL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+				Thread thread = new Thread(r, "chatexchange-http");
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor.allowCoreThreadTimeOut(true); // threads are only kept while there are requests
+			this.executor = executor;
+		}
+
+	}
+
+}
@@ -0,0 +1,165 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+/**
+ * Set of the ids of the users present in a room, along with the last time the users that left were seen.
+ * <p>The present users are held in a snapshot that is never modified once published: a sorted array of primitive longs, and an open
+ * addressing hash table of the same ids. Membership checks are a lock-free probe of the current table, without boxing. Changes, which
+ * are rare compared to lookups, build a new snapshot under a lock and publish it, so that readers never see a partially updated set,
+ * even when the whole set is replaced.
+ * @author Tunaki
+ */
+final class PresenceSet {
+
+	private static final int RETAINED_LAST_SEEN = 10_000;
+
+	private volatile Snapshot present = new Snapshot(new long[0]);
+	private final LinkedHashMap<Long, Long> lastSeen = new LinkedHashMap<Long, Long>() {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+			return size() > RETAINED_LAST_SEEN;
+		}
+	};
+
+	/**
+	 * Tells whether the given user is present.
+	 * @param userId Id of the user.
+	 * @return Whether the user is present.
+	 */
+	boolean contains(long userId) {
+		return present.contains(userId);
+	}
+
+	/**
+	 * Returns the ids of the present users, sorted.
+	 * @return Ids of the present users.
+	 */
+	long[] toArray() {
+		return present.ids.clone();
+	}
+
+	/**
+	 * Returns the last time the given user, who is not present, was seen.
+	 * @param userId Id of the user.
+	 * @return Time the user left, in seconds since the epoch, or <code>-1</code> if it is unknown.
+	 */
+	synchronized long lastSeen(long userId) {
+		Long seconds = lastSeen.get(userId);
+		return seconds == null ? -1 : seconds;
+	}
+
+	/**
+	 * Marks the given user as present.
+	 * @param userId Id of the user.
+	 * @return Whether the user wasn't already present.
+	 */
+	synchronized boolean add(long userId) {
+		long[] current = present.ids;
+		int index = Arrays.binarySearch(current, userId);
+		if (index >= 0) return false;
+		int insertion = -index - 1;
+		long[] updated = new long[current.length + 1];
+		System.arraycopy(current, 0, updated, 0, insertion);
+		updated[insertion] = userId;
+		System.arraycopy(current, insertion, updated, insertion + 1, current.length - insertion);
+		present = new Snapshot(updated);
+		return true;
+	}
+
+	/**
+	 * Marks the given user as absent.
+	 * @param userId Id of the user.
+	 * @param seconds Time the user left, in seconds since the epoch.
+	 * @return Whether the user was present.
+	 */
+	synchronized boolean remove(long userId, long seconds) {
+		long[] current = present.ids;
+		int index = Arrays.binarySearch(current, userId);
+		if (index < 0) return false;
+		long[] updated = new long[current.length - 1];
+		System.arraycopy(current, 0, updated, 0, index);
+		System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+		present = new Snapshot(updated);
+		lastSeen.remove(userId);
+		lastSeen.put(userId, seconds);
+		return true;
+	}
+
+	/**
+	 * Replaces the present users with the given ones, in a single step, and reports the users that entered or left.
+	 * @param userIds Ids of the users now present.
+	 * @param seconds Time of the change, in seconds since the epoch.
+	 * @param entered Consumer of the ids of the users that entered.
+	 * @param left Consumer of the ids of the users that left.
+	 */
+	synchronized void replace(long[] userIds, long seconds, LongConsumer entered, LongConsumer left) {
+		long[] updated = Arrays.stream(userIds).sorted().distinct().toArray();
+		long[] current = present.ids;
+		present = new Snapshot(updated);
+		int i = 0, j = 0;
+		while (i < current.length || j < updated.length) {
+			if (j >= updated.length || (i < current.length && current[i] < updated[j])) {
+				lastSeen.remove(current[i]);
+				lastSeen.put(current[i], seconds);
+				left.accept(current[i++]);
+			} else if (i >= current.length || updated[j] < current[i]) {
+				entered.accept(updated[j++]);
+			} else {
+				i++;
+				j++;
+			}
+		}
+	}
+
+	/**
+	 * Immutable set of ids: sorted for iteration and comparison, and hashed with linear probing for lookups. The table is at most half
+	 * full, and uses <code>0</code> as its empty slot, so that the id <code>0</code> is tracked on its own.
+	 */
+	private static final class Snapshot {
+
+		private final long[] ids;
+		private final long[] table;
+		private final int shift;
+		private final boolean containsZero;
+
+		Snapshot(long[] ids) {
+			this.ids = ids;
+			int bits = 64 - Long.numberOfLeadingZeros(Math.max(1, ids.length * 2L - 1)) + 1;
+			table = new long[1 << bits];
+			shift = 64 - bits;
+			boolean zero = false;
+			for (long id : ids) {
+				if (id == 0) {
+					zero = true;
+					continue;
+				}
+				int slot = slot(id);
+				while (table[slot] != 0) {
+					slot = (slot + 1) & (table.length - 1);
+				}
+				table[slot] = id;
+			}
+			containsZero = zero;
+		}
+
+		boolean contains(long id) {
+			if (id == 0) return containsZero;
+			for (int slot = slot(id); ; slot = (slot + 1) & (table.length - 1)) {
+				long candidate = table[slot];
+				if (candidate == id) return true;
+				if (candidate == 0) return false;
+			}
+		}
+
+		private int slot(long id) {
+			return (int) ((id * 0x9E3779B97F4A7C15L) >>> shift);
+		}
+
+	}
+
+}
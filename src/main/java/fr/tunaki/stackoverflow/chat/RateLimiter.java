@@ -0,0 +1,87 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the rate of the actions sent to the chat server, so that they are delayed before the chat server throttles them.
+ * <p>The bucket holds at most <code>capacity</code> tokens, and one token is added every interval. Each action takes a token: when there
+ * are none left, it has to wait until one is added. Reserving a token when the bucket is empty makes the count negative, so that
+ * actions reserving one after the other are spaced by the interval.
+ * <p>The rate is learnt from the chat server: when it throttles an action, the interval is increased and no token is available until
+ * the throttle expires. Each action that goes through without being throttled then slowly decreases the interval back to its initial
+ * value.
+ * @author Tunaki
+ */
+final class RateLimiter {
+
+	private static final double THROTTLE_BACKOFF_FACTOR = 1.5;
+	private static final double SUCCESS_RECOVERY_FACTOR = 0.95;
+	private static final long MAX_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	private final int capacity;
+	private final long initialIntervalNanos;
+
+	private double tokens;
+	private long intervalNanos;
+	private long lastRefillNanos = System.nanoTime();
+
+	/**
+	 * @param capacity Maximum number of actions that can be sent in a burst.
+	 * @param interval Initial time between two actions once the burst is consumed.
+	 * @param unit Unit of the interval.
+	 */
+	RateLimiter(int capacity, long interval, TimeUnit unit) {
+		this.capacity = capacity;
+		this.initialIntervalNanos = unit.toNanos(interval);
+		this.intervalNanos = initialIntervalNanos;
+		this.tokens = capacity;
+	}
+
+	/**
+	 * Reserves a token for an action.
+	 * @return Time, in nanoseconds, the action must wait before being sent.
+	 */
+	synchronized long reserve() {
+		refill(System.nanoTime());
+		long wait = tokens >= 1 ? 0 : (long) ((1 - tokens) * intervalNanos);
+		tokens--;
+		return wait;
+	}
+
+	/**
+	 * Returns the time an action would wait if the given number of actions were sent now, without reserving any token.
+	 * @param actions Number of actions.
+	 * @return Time, in nanoseconds, the last of those actions would wait.
+	 */
+	synchronized long waitTime(int actions) {
+		refill(System.nanoTime());
+		double missing = actions - tokens;
+		return missing <= 0 ? 0 : (long) (missing * intervalNanos);
+	}
+
+	/**
+	 * Records that an action was throttled by the chat server: the rate is decreased, and no action is allowed before the throttle expires.
+	 * @param throttle Time before the action can be performed again, as sent by the chat server.
+	 * @param unit Unit of the throttle.
+	 */
+	synchronized void onThrottled(long throttle, TimeUnit unit) {
+		long now = System.nanoTime();
+		refill(now);
+		intervalNanos = Math.min(MAX_INTERVAL_NANOS, (long) (intervalNanos * THROTTLE_BACKOFF_FACTOR));
+		tokens = Math.min(tokens, -(double) unit.toNanos(throttle) / intervalNanos);
+	}
+
+	/**
+	 * Records that an action went through without being throttled: the rate slowly recovers.
+	 */
+	synchronized void onSuccess() {
+		refill(System.nanoTime());
+		intervalNanos = Math.max(initialIntervalNanos, (long) (intervalNanos * SUCCESS_RECOVERY_FACTOR));
+	}
+
+	private void refill(long now) {
+		tokens = Math.min(capacity, tokens + (double) (now - lastRefillNanos) / intervalNanos);
+		lastRefillNanos = now;
+	}
+
+}
@@ -2,57 +2,52 @@ package fr.tunaki.stackoverflow.chat;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.LongPredicate;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
-import javax.websocket.ClientEndpointConfig;
-import javax.websocket.ClientEndpointConfig.Builder;
-import javax.websocket.ClientEndpointConfig.Configurator;
-import javax.websocket.DeploymentException;
-import javax.websocket.Endpoint;
-import javax.websocket.EndpointConfig;
-import javax.websocket.Session;
-
-import org.glassfish.tyrus.client.ClientManager;
-import org.glassfish.tyrus.client.ClientProperties;
-import org.glassfish.tyrus.container.jdk.client.JdkClientContainer;
-import org.jsoup.Connection.Response;
+import org.jsoup.Connection.Method;
 import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.parser.Parser;
-import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,6 +59,15 @@ import com.google.gson.JsonParser;
 import fr.tunaki.stackoverflow.chat.event.Event;
 import fr.tunaki.stackoverflow.chat.event.EventType;
 import fr.tunaki.stackoverflow.chat.event.Events;
+import fr.tunaki.stackoverflow.chat.event.KickedEvent;
+import fr.tunaki.stackoverflow.chat.event.MessageDeletedEvent;
+import fr.tunaki.stackoverflow.chat.event.MessageEditedEvent;
+import fr.tunaki.stackoverflow.chat.event.MessageEvent;
+import fr.tunaki.stackoverflow.chat.event.MessagePostedEvent;
+import fr.tunaki.stackoverflow.chat.event.MessageStarredEvent;
+import fr.tunaki.stackoverflow.chat.event.PingMessageEvent;
+import fr.tunaki.stackoverflow.chat.event.UserEnteredEvent;
+import fr.tunaki.stackoverflow.chat.event.UserLeftEvent;
 
 public final class Room {
 
@@ -72,21 +76,32 @@ public final class Room {
 	private static final String SUCCESS = "ok";
 	private static final Pattern TRY_AGAIN_PATTERN = Pattern.compile("You can perform this action again in (\\d+) seconds");
 	private static final Pattern CURRENT_USERS_PATTERN = Pattern.compile("\\{id:\\s?(\\d+),");
-	private static final Pattern MARKDOWN_LINK_PATTERN = Pattern.compile("\\[(\\\\]|[^\\]])+\\]\\((https?:)?//(\\\\\\)|\\\\\\(|[^\\s)(])+\\)"); // oh dear god
 	private static final Pattern FAILED_UPLOAD_PATTERN = Pattern.compile("var error = '(.+)';");
 	private static final Pattern SUCCESS_UPLOAD_PATTERN = Pattern.compile("var result = '(.+)';");
 	private static final int NUMBER_OF_RETRIES_ON_THROTTLE = 5;
 	private static final DateTimeFormatter MESSAGE_TIME_FORMATTER = DateTimeFormatter.ofPattern("h:mm a").withZone(ZoneOffset.UTC);
 	private static final int EDIT_WINDOW_SECONDS = 115;
-	private static final int WEB_SOCKET_RESTART_SECONDS = 30;
 	private static final int MAX_CHAT_MESSAGE_LENGTH = 500;
+	private static final int FETCH_THREADS = 4;
+	private static final int EVENT_THREADS = 4;
+	private static final int DEFAULT_LISTENER_QUEUE_CAPACITY = 10_000;
+	private static final int USER_INFO_BATCH_WINDOW_MILLIS = 5;
+	private static final int MESSAGE_CACHE_MAXIMUM_SIZE = 1_000;
+	private static final int MESSAGE_CACHE_EXPIRATION_MINUTES = 10;
+	private static final int BACKFILL_EVENT_COUNT = 100;
+	private static final int HISTORY_PAGE_SIZE = 100;
+	private static final int DEFAULT_HISTORY_PREFETCH = 4;
+	private static final int HISTORY_RATE_LIMIT_CAPACITY = 8;
+	private static final int HISTORY_RATE_LIMIT_INTERVAL_MILLIS = 250;
+	private static final int RATE_LIMIT_CAPACITY = 4;
+	private static final int RATE_LIMIT_INTERVAL_MILLIS = 1000;
+	private static final CompletableFuture<Void> NOW = CompletableFuture.completedFuture(null);
 
 	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-	private final ExecutorService eventExecutor = Executors.newCachedThreadPool();
+	private final ExecutorService eventExecutor = Executors.newFixedThreadPool(EVENT_THREADS);
+	private final ScheduledExecutorService fetchExecutor = Executors.newScheduledThreadPool(FETCH_THREADS);
 
-	private Session webSocketSession;
-	private LocalDateTime lastWebsocketMessageDate = LocalDateTime.now();
-	private Map<EventType<Object>, List<Consumer<Object>>> chatEventListeners = new HashMap<>();
+	private final EventListenerRegistry chatEventListeners = new EventListenerRegistry();
 
 	private int roomId;
 	private ChatHost host;
@@ -94,67 +109,111 @@ public final class Room {
 
 	private HttpClient httpClient;
 	private Map<String, String> cookies;
+	private RoomMetrics metrics;
+	private Tracer tracer;
+	private ChatWebSocket webSocket;
+
+	private UserCache userCache;
+	private UserInfoBatcher userInfoBatcher;
+	private Cache<Long, Message> messageCache = new Cache<>(MESSAGE_CACHE_MAXIMUM_SIZE, MESSAGE_CACHE_EXPIRATION_MINUTES, TimeUnit.MINUTES);
 
 	private boolean hasLeft = false;
+	private final Object actionLock = new Object();
+	private CompletableFuture<?> lastAction = CompletableFuture.completedFuture(null);
+	private AtomicInteger pendingActionCount = new AtomicInteger();
+	private RateLimiter rateLimiter = new RateLimiter(RATE_LIMIT_CAPACITY, RATE_LIMIT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	private RateLimiter accountRateLimiter;
+	private RateLimiter historyRateLimiter = new RateLimiter(HISTORY_RATE_LIMIT_CAPACITY, HISTORY_RATE_LIMIT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	private volatile MessageBatcher messageBatcher;
+	private volatile Outbox outbox;
+	private volatile EventJournal eventJournal;
+	private volatile long lastEventId;
+	private final Object ingestLock = new Object();
+	private JsonArray heldEvents;
+	private final Deque<Runnable> pendingDispatches = new ArrayDeque<>();
+	private boolean dispatching;
 
 	private List<Long> pingableUserIds;
-	private Set<Long> currentUserIds = new HashSet<>();
+	private final PresenceSet presence = new PresenceSet();
 
-	Room(ChatHost host, int roomId, HttpClient httpClient, Map<String, String> cookies) {
+	Room(ChatHost host, String hostUrlBase, int roomId, HttpClient httpClient, Map<String, String> cookies, UserCache userCache, RateLimiter accountRateLimiter, ChatWebSocket webSocket, MetricsRegistry metricsRegistry, Tracer tracer) {
 		this.roomId = roomId;
 		this.host = host;
-		hostUrlBase = host.getBaseUrl();
-		this.httpClient = httpClient;
-		this.cookies = new HashMap<>(cookies);
-		executeAndSchedule(() -> fkey = retrieveFKey(roomId), 1);
-		executeAndSchedule(this::syncPingableUsers, 24);
-		syncCurrentUsers();
-		initWebSocket();
-		executor.scheduleAtFixedRate(() -> {
-			if (ChronoUnit.SECONDS.between(lastWebsocketMessageDate, LocalDateTime.now()) > WEB_SOCKET_RESTART_SECONDS) {
-				LOGGER.debug("Rebooting the WebSocket connection after {} seconds of inactivity", WEB_SOCKET_RESTART_SECONDS);
-				closeWebSocket();
-				try {
-					Thread.sleep(3000); // just wait a little for the server to really understand we closed the connection
-				} catch (InterruptedException e) { }
-				initWebSocket();
-			}
-		}, WEB_SOCKET_RESTART_SECONDS, WEB_SOCKET_RESTART_SECONDS, TimeUnit.SECONDS);
-		addEventListener(EventType.USER_ENTERED, e -> currentUserIds.add(e.getUserId()));
-		addEventListener(EventType.USER_LEFT, e -> currentUserIds.remove(e.getUserId()));
+		this.hostUrlBase = hostUrlBase;
+		this.metrics = new RoomMetrics(metricsRegistry, host, roomId);
+		this.httpClient = metrics.instrument(httpClient);
+		this.tracer = tracer;
+		this.cookies = new ConcurrentHashMap<>(cookies);
+		this.userCache = userCache;
+		this.accountRateLimiter = accountRateLimiter;
+		this.webSocket = webSocket;
+		userInfoBatcher = new UserInfoBatcher(this::fetchUsers, fetchExecutor, USER_INFO_BATCH_WINDOW_MILLIS);
+		// the room page is fetched once and used for both the fkey and the current users, while the pingable users are fetched
+		CompletableFuture<Void> pingableUsers = CompletableFuture.runAsync(this::syncPingableUsers, fetchExecutor);
+		Document roomPage = fetchRoomPage();
+		fkey = readFKey(roomPage);
+		syncCurrentUsers(roomPage);
+		join(pingableUsers);
+		executor.scheduleAtFixedRate(() -> fkey = readFKey(fetchRoomPage()), 1, 1, TimeUnit.HOURS);
+		executor.scheduleAtFixedRate(this::syncPingableUsers, 24, 24, TimeUnit.HOURS);
+		try {
+			joinChatEvents();
+		} catch (ChatOperationException e) {
+			LOGGER.error("Error while joining the chat events of room {}. There will be no response on chat events!", roomId, e);
+		}
+		webSocket.register(this);
 	}
 
-	private void executeAndSchedule(Runnable action, int rate) {
-		action.run();
-		executor.scheduleAtFixedRate(action, rate, rate, TimeUnit.HOURS);
+	private JsonElement post(String url, String... data) {
+		return join(postAsync(url, data));
 	}
 
-	private JsonElement post(String url, String... data) {
-		return post(NUMBER_OF_RETRIES_ON_THROTTLE, url, data);
+	private CompletableFuture<JsonElement> postAsync(String url, String... data) {
+		return postAsync(NUMBER_OF_RETRIES_ON_THROTTLE, url, data);
 	}
 
-	private JsonElement post(int retryCount, String url, String... data) {
-		Response response;
-		try {
-			response = httpClient.postIgnoringErrors(url, cookies, withFkey(data));
-		} catch (IOException e) {
-			throw new ChatOperationException(e);
-		}
-		String body = response.body();
-		if (response.statusCode() == 200) {
-			return new JsonParser().parse(body);
-		}
-		Matcher matcher = TRY_AGAIN_PATTERN.matcher(body);
-		if (retryCount > 0 && matcher.find()) {
-			long throttle = Long.parseLong(matcher.group(1));
-			LOGGER.debug("Tried to POST to URL {} with data {} but was throttled, retrying in {} seconds", url, data, throttle);
-			try {
-				Thread.sleep(1000 * throttle);
-			} catch (InterruptedException e) { }
-			return post(retryCount - 1, url, data);
-		} else {
+	private CompletableFuture<JsonElement> postAsync(int retryCount, String url, String... data) {
+		return execute(new HttpRequest(Method.POST, url, cookies, true, withFkey(data))).thenCompose(response -> {
+			String body = response.body();
+			if (response.statusCode() == 200) {
+				rateLimiter.onSuccess();
+				accountRateLimiter.onSuccess();
+				return CompletableFuture.completedFuture(new JsonParser().parse(body));
+			}
+			Matcher matcher = TRY_AGAIN_PATTERN.matcher(body);
+			if (matcher.find()) {
+				long throttle = Long.parseLong(matcher.group(1));
+				rateLimiter.onThrottled(throttle, TimeUnit.SECONDS);
+				accountRateLimiter.onThrottled(throttle, TimeUnit.SECONDS);
+				metrics.throttled(throttle, TimeUnit.SECONDS);
+				if (retryCount > 0) {
+					LOGGER.debug("Tried to POST to URL {} with data {} but was throttled, retrying in {} seconds", url, data, throttle);
+					return acquireRateLimit().thenCompose(v -> postAsync(retryCount - 1, url, data));
+				}
+			}
 			throw new ChatOperationException("The chat operation failed with the message: " + body);
-		}
+		});
+	}
+
+	private CompletableFuture<HttpResponse> execute(HttpRequest request) {
+		return httpClient.execute(request).exceptionally(t -> {
+			throw new ChatOperationException(t instanceof CompletionException ? t.getCause() : t);
+		});
+	}
+
+	/**
+	 * Reserves a token in the rate limiters of this room and of the account, and waits until both allow the action. After a throttle,
+	 * this waits at least until the throttle expires.
+	 */
+	private CompletableFuture<Void> acquireRateLimit() {
+		return delay(Math.max(rateLimiter.reserve(), accountRateLimiter.reserve()), TimeUnit.NANOSECONDS);
+	}
+
+	private CompletableFuture<Void> delay(long delay, TimeUnit unit) {
+		if (delay <= 0) return CompletableFuture.completedFuture(null);
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		fetchExecutor.schedule(() -> future.complete(null), delay, unit);
+		return future;
 	}
 
 	private String[] withFkey(String[] data) {
@@ -165,116 +224,600 @@ public final class Room {
 		return dataWithFKey;
 	}
 
-	private String retrieveFKey(int roomId) {
+	private Document fetchRoomPage() {
 		try {
-			Response response = httpClient.get(hostUrlBase + "/rooms/" + roomId, cookies);
-			String fkey = response.parse().getElementById("fkey").val();
-			LOGGER.debug("New fkey retrieved for room {} is {}", roomId, fkey);
-			return fkey;
+			return httpClient.get(hostUrlBase + "/rooms/" + roomId, cookies).parse();
 		} catch (IOException e) {
 			throw new ChatOperationException(e);
 		}
 	}
 
-	private void initWebSocket() {
-		String websocketUrl;
-		try {
-			websocketUrl = post(hostUrlBase + "/ws-auth", "roomid", String.valueOf(roomId)).getAsJsonObject().get("url").getAsString();
-			String time = post(hostUrlBase + "/chats/" + roomId + "/events").getAsJsonObject().get("time").getAsString();
-			websocketUrl += "?l=" + time;
-		} catch (ChatOperationException e) {
-			LOGGER.error("Error while retrieving WebSocket information for room {}. There will be no response on chat events!", roomId, e);
-			return;
-		}
-		LOGGER.debug("Connecting to chat WebSocket at URL {} for room {}", websocketUrl, roomId);
-		ClientManager client = ClientManager.createClient(JdkClientContainer.class.getName());
-		Builder configBuilder = ClientEndpointConfig.Builder.create();
-		configBuilder.configurator(new Configurator() {
-			@Override
-			public void beforeRequest(Map<String, List<String>> headers) {
-				headers.put("Origin", Arrays.asList(hostUrlBase));
+	private String readFKey(Document roomPage) {
+		String fkey = roomPage.getElementById("fkey").val();
+		LOGGER.debug("New fkey retrieved for room {} is {}", roomId, fkey);
+		metrics.fkeyRefreshed();
+		return fkey;
+	}
+
+	/**
+	 * Retrieves the URL of the WebSocket on which the chat server will send the events of the rooms joined by the current user.
+	 * @return URL of the WebSocket.
+	 */
+	String retrieveWebSocketUrl() {
+		String websocketUrl = post(hostUrlBase + "/ws-auth", "roomid", String.valueOf(roomId)).getAsJsonObject().get("url").getAsString();
+		return websocketUrl + "?l=" + joinChatEvents();
+	}
+
+	private String joinChatEvents() {
+		return post(hostUrlBase + "/chats/" + roomId + "/events").getAsJsonObject().get("time").getAsString();
+	}
+
+	/**
+	 * Holds the chat events received from now on, until {@link #releaseChatEvents()} is called, and returns the id of the last event
+	 * handled. This is used while the WebSocket reconnects: the events received on the new connection are held while the events missed
+	 * since that id are fetched, so that they don't make the missed ones look already handled.
+	 * @return Id of the last event handled.
+	 */
+	long holdChatEvents() {
+		synchronized (ingestLock) {
+			if (heldEvents == null) {
+				heldEvents = new JsonArray();
 			}
-		});
-		client.getProperties().put(ClientProperties.RETRY_AFTER_SERVICE_UNAVAILABLE, true);
-		try {
-			webSocketSession = client.connectToServer(new Endpoint() {
-				@Override
-				public void onOpen(Session session, EndpointConfig config) {
-					session.addMessageHandler(String.class, Room.this::handleChatEvent);
-				}
-				@Override
-				public void onError(Session session, Throwable thr) {
-					LOGGER.error("An error occured during the processing of a message in room {}", roomId, thr);
+			return lastEventId;
+		}
+	}
+
+	/**
+	 * Handles the chat events held since {@link #holdChatEvents()} was called, in the order they were raised, and stops holding them.
+	 */
+	void releaseChatEvents() {
+		synchronized (ingestLock) {
+			JsonArray events = heldEvents;
+			heldEvents = null;
+			if (events != null) {
+				ingestChatEvents(events, null);
+			}
+		}
+		runDispatches();
+	}
+
+	/**
+	 * Fetches the events that were raised in this room since the given event, and handles them, even if the events are held, then
+	 * synchronizes the users present in the room. This is used to recover the events missed while the WebSocket was disconnected.
+	 * <p>The events are fetched by pages of {@value #BACKFILL_EVENT_COUNT}: the next page is fetched as long as a page is full.
+	 * @param since Id of the last event handled, or <code>0</code> if no event was ever handled.
+	 */
+	void backfillChatEvents(long since) {
+		while (since != 0) {
+			JsonArray events = post(hostUrlBase + "/chats/" + roomId + "/events", "since", String.valueOf(since), "mode", "Events", "msgCount", String.valueOf(BACKFILL_EVENT_COUNT)).getAsJsonObject().get("events").getAsJsonArray();
+			LOGGER.debug("Retrieved {} events raised in room {} since event {}", events.size(), roomId, since);
+			synchronized (ingestLock) {
+				ingestChatEvents(events, null);
+			}
+			runDispatches();
+			if (events.size() < BACKFILL_EVENT_COUNT) break;
+			long newest = StreamSupport.stream(events.spliterator(), false).mapToLong(Room::eventId).max().getAsLong();
+			if (newest <= since) {
+				LOGGER.warn("Cannot page through the events raised in room {} since event {}: some of them were missed", roomId, since);
+				break;
+			}
+			since = newest;
+		}
+		syncCurrentUsers();
+	}
+
+	/**
+	 * Handles the given raw chat events: events that were already handled are discarded, and the others are handled in the order
+	 * they were raised.
+	 */
+	void handleChatEvents(JsonArray events) {
+		handleChatEvents(events, null);
+	}
+
+	/**
+	 * Handles the given raw chat events, received in the given traced frame, unless the events are held.
+	 * <p>Only discarding the events already handled and journaling the others is done under a lock. The events are then dispatched in
+	 * the order they were handled, without holding any lock: a listener whose queue is full can act on this room while the events wait
+	 * for room in its queue.
+	 * @param frameSpan Span of the frame, or <code>null</code> if the frame isn't traced.
+	 */
+	void handleChatEvents(JsonArray events, Tracer.Span frameSpan) {
+		synchronized (ingestLock) {
+			if (heldEvents != null) {
+				heldEvents.addAll(events);
+				return;
+			}
+			ingestChatEvents(events, frameSpan);
+		}
+		runDispatches();
+	}
+
+	/**
+	 * Discards the given events already handled, journals the others and queues their dispatch. The ingest lock must be held.
+	 */
+	private void ingestChatEvents(JsonArray events, Tracer.Span frameSpan) {
+		JsonArray newEvents = new JsonArray();
+		StreamSupport.stream(events.spliterator(), false).filter(e -> eventId(e) == 0 || eventId(e) > lastEventId).sorted(Comparator.comparingLong(Room::eventId)).forEach(newEvents::add);
+		if (newEvents.size() == 0) return;
+		lastEventId = Math.max(lastEventId, eventId(newEvents.get(newEvents.size() - 1)));
+		EventJournal journal = eventJournal;
+		if (journal != null) {
+			try {
+				journal.append(newEvents);
+			} catch (IOException e) {
+				LOGGER.error("Cannot journal the events of room {}", roomId, e);
+			}
+		}
+		pendingDispatches.add(() -> dispatchChatEvents(newEvents, true, frameSpan));
+	}
+
+	/**
+	 * Queues the given dispatch after the ones already queued, and runs them.
+	 */
+	private void queueDispatch(Runnable dispatch) {
+		synchronized (ingestLock) {
+			pendingDispatches.add(dispatch);
+		}
+		runDispatches();
+	}
+
+	/**
+	 * Runs the queued dispatches in order, unless another thread is already running them, in which case that thread also runs those
+	 * queued meanwhile.
+	 */
+	private void runDispatches() {
+		synchronized (ingestLock) {
+			if (dispatching) return;
+			dispatching = true;
+		}
+		while (true) {
+			Runnable dispatch;
+			synchronized (ingestLock) {
+				dispatch = pendingDispatches.poll();
+				if (dispatch == null) {
+					dispatching = false;
+					return;
 				}
-			}, configBuilder.build(), new URI(websocketUrl));
-		} catch (DeploymentException | URISyntaxException | IOException e) {
-			throw new ChatOperationException("Cannot connect to chat websocket", e);
+			}
+			try {
+				dispatch.run();
+			} catch (RuntimeException e) {
+				LOGGER.error("Cannot dispatch the events of room {}", roomId, e);
+			}
+		}
+	}
+
+	/**
+	 * Dispatches the given raw chat events to the listeners. Live events also update the message cache, while replayed events only
+	 * reach the listeners.
+	 */
+	private void dispatchChatEvents(JsonArray events, boolean live, Tracer.Span frameSpan) {
+		Tracer.Span createSpan = frameSpan == null ? null : frameSpan.child("chat.events.create").attribute("room", roomId);
+		List<Event> created = Events.fromJsonData(events, this);
+		if (createSpan != null) {
+			createSpan.attribute("event.count", created.size()).end();
+		}
+		for (Event event : created) {
+			if (live) {
+				metrics.eventReceived(event.getType());
+				updateMessageCache(event);
+			}
+			dispatch(event, frameSpan);
+			if (live) {
+				updatePresence(event);
+			}
+		}
+	}
+
+	private void dispatch(Event event) {
+		dispatch(event, null);
+	}
+
+	private void dispatch(Event event, Tracer.Span frameSpan) {
+		for (EventListenerQueue<Object> listener : chatEventListeners.get(event.getType())) {
+			if (frameSpan == null) {
+				listener.offer(event);
+			} else {
+				listener.offer(event, frameSpan.child("chat.listener.queue").attribute("room", roomId).attribute("event.type", event.getType().name()).origin(event.getInstant()));
+			}
+		}
+	}
+
+	private void updatePresence(Event event) {
+		if (event instanceof UserEnteredEvent) {
+			long lastSeen = presence.lastSeen(event.getUserId());
+			if (presence.add(event.getUserId())) {
+				dispatch(Events.presenceChanged(this, event.getUserId(), true, event.getInstant(), lastSeen < 0 ? null : Instant.ofEpochSecond(lastSeen)));
+			}
+		} else if (event instanceof UserLeftEvent || event instanceof KickedEvent) {
+			long userId = event instanceof KickedEvent ? ((KickedEvent) event).getKickeeId() : event.getUserId();
+			if (presence.remove(userId, event.getInstant().getEpochSecond())) {
+				dispatch(Events.presenceChanged(this, userId, false, event.getInstant(), event.getInstant()));
+			}
+		}
+	}
+
+	/**
+	 * Records the raw events received in this room in an append-only journal, so that they can be replayed later with
+	 * {@link #replayEvents(Instant, Instant)} or {@link #replayEvents(long, long)}.
+	 * <p>The journal is made of memory-mapped segment files, indexed by event id and timestamp. An existing journal is opened and appended
+	 * to. Each room needs its own journal directory. The journal previously enabled, if any, is closed first: if the new journal cannot
+	 * be opened, no journal is enabled anymore.
+	 * @param directory Directory of the journal, created if it doesn't exist.
+	 */
+	public void enableEventJournal(Path directory) {
+		// under the ingest lock, so that no events are being appended to the previous journal as it is closed
+		synchronized (ingestLock) {
+			EventJournal previous = eventJournal;
+			if (previous != null) {
+				eventJournal = null;
+				previous.close();
+			}
+			try {
+				eventJournal = new EventJournal(directory);
+			} catch (IOException e) {
+				throw new ChatOperationException("Cannot open the event journal " + directory, e);
+			}
 		}
-		LOGGER.debug("WebSocket session successfully opened in room {}.", roomId);
 	}
 
-	private void closeWebSocket() {
+	/**
+	 * Replays the journaled events raised between the given instants, inclusive, through the listeners of this room, as fast as they can
+	 * be dispatched. This is useful to test listeners against recorded traffic. Replayed events don't update the message cache and are not
+	 * journaled again. They are dispatched in turn with the live events of this room, so that listeners never see both at once: when
+	 * called from a listener of this room, the events are dispatched after it returns.
+	 * @param from Instant of the first event to replay.
+	 * @param to Instant of the last event to replay.
+	 * @return Number of events replayed.
+	 * @throws ChatOperationException if no event journal is enabled, or if it cannot be read.
+	 */
+	public long replayEvents(Instant from, Instant to) {
+		return replayEvents(true, from.getEpochSecond(), to.getEpochSecond());
+	}
+
+	/**
+	 * Replays the journaled events whose id is between the given ids, inclusive, through the listeners of this room, as fast as they can
+	 * be dispatched. Replayed events don't update the message cache and are not journaled again. Like live events, they are dispatched in
+	 * turn with the other events of this room.
+	 * @param fromEventId Id of the first event to replay.
+	 * @param toEventId Id of the last event to replay.
+	 * @return Number of events replayed.
+	 * @throws ChatOperationException if no event journal is enabled, or if it cannot be read.
+	 */
+	public long replayEvents(long fromEventId, long toEventId) {
+		return replayEvents(false, fromEventId, toEventId);
+	}
+
+	private long replayEvents(boolean byTimestamp, long from, long to) {
+		EventJournal journal = eventJournal;
+		if (journal == null) {
+			throw new ChatOperationException("No event journal is enabled in room " + roomId);
+		}
 		try {
-			webSocketSession.close();
-			LOGGER.debug("WebSocket session successfully closed in room {}.", roomId);
+			long count = journal.replay(byTimestamp, from, to, events -> queueDispatch(() -> dispatchChatEvents(events, false, null)));
+			LOGGER.debug("Replayed {} journaled events in room {}", count, roomId);
+			return count;
 		} catch (IOException e) {
-			LOGGER.error("Error while closing the WebSocket in room {}.", roomId, e);
+			throw new ChatOperationException("Cannot read the event journal of room " + roomId, e);
 		}
 	}
 
-	private void handleChatEvent(String json) {
-		LOGGER.debug("Received message: {}", json);
-		lastWebsocketMessageDate = LocalDateTime.now();
-		JsonObject jsonObject = new JsonParser().parse(json).getAsJsonObject();
-		jsonObject.entrySet().stream().filter(e -> e.getKey().equals("r" + roomId)).map(Map.Entry::getValue).map(JsonElement::getAsJsonObject).map(o -> o.get("e")).filter(Objects::nonNull).map(JsonElement::getAsJsonArray).findFirst().ifPresent(events -> {
-			for (Event event : Events.fromJsonData(events, this)) {
-				for (Consumer<Object> listener : chatEventListeners.getOrDefault(EventType.fromEvent(event), Collections.emptyList())) {
-					eventExecutor.submit(() -> listener.accept(event));
-				}
+	private static long eventId(JsonElement event) {
+		JsonElement id = event.getAsJsonObject().get("id");
+		return id == null ? 0 : id.getAsLong();
+	}
+
+	private void updateMessageCache(Event event) {
+		if (event instanceof MessagePostedEvent || event instanceof MessageEditedEvent || event instanceof PingMessageEvent) {
+			MessageEvent messageEvent = (MessageEvent) event;
+			messageCache.put(messageEvent.getMessageId(), toMessage(messageEvent));
+		} else if (event instanceof MessageStarredEvent) {
+			MessageStarredEvent starredEvent = (MessageStarredEvent) event;
+			messageCache.update(starredEvent.getMessageId(), m -> m.withStars(starredEvent.getStarCount(), starredEvent.isPinned()));
+		} else if (event instanceof MessageDeletedEvent) {
+			messageCache.invalidate(((MessageDeletedEvent) event).getMessageId());
+		}
+	}
+
+	/**
+	 * Builds the message from the data sent with the given event: only the user that posted it and its plain content are missing, and
+	 * are fetched lazily. The chat server sends deleted messages without their content.
+	 */
+	private Message toMessage(MessageEvent event) {
+		long messageId = event.getMessageId(), userId = event.getUserId();
+		boolean deleted = event.getContent() == null;
+		return new Message(messageId, new Lazy<>(() -> getUser(userId)), new Lazy<>(() -> deleted ? null : fetchPlainContent(messageId)), event.getContent(), deleted, event.getStarCount(), event.isPinned(), event.getEditCount());
+	}
+
+	private String fetchPlainContent(long messageId) {
+		try {
+			return httpClient.get(hostUrlBase + "/message/" + messageId, cookies, "plain", "true").body();
+		} catch (HttpStatusException e) {
+			if (e.getStatusCode() == 404) {
+				LOGGER.debug("Tried to view the source of deleted message {}", messageId);
+				return null;
 			}
-		});
+			throw new ChatOperationException(e);
+		} catch (IOException e) {
+			throw new ChatOperationException(e);
+		}
+	}
+
+	/**
+	 * Adds a listener for the given event. Valid events are defined as constants of the {@link EventType} class.
+	 * <p>All listeners bound to a specific event will be called when the corresponding event is raised.
+	 * <p>Each listener is called with one event at a time, in the order the events were raised. Up to
+	 * {@value #DEFAULT_LISTENER_QUEUE_CAPACITY} events can be pending for a listener; when that limit is reached, the reception
+	 * of chat events is paused until the listener catches up.
+	 * @param event Event to listen to.
+	 * @param listener Listener to add to this event.
+	 * @param <T> type of the event.
+	 * @return Registration of the listener, that can be used to remove it.
+	 * @see #addEventListener(EventType, Consumer, int, OverflowPolicy)
+	 */
+	public <T> ListenerRegistration addEventListener(EventType<T> event, Consumer<T> listener) {
+		return addEventListener(event, listener, DEFAULT_LISTENER_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
 	}
 
 	/**
 	 * Adds a listener for the given event. Valid events are defined as constants of the {@link EventType} class.
 	 * <p>All listeners bound to a specific event will be called when the corresponding event is raised.
+	 * <p>Each listener is called with one event at a time, in the order the events were raised. At most <code>queueCapacity</code>
+	 * events can be pending for this listener: when an event is raised while that limit is reached, the given overflow policy applies.
 	 * @param event Event to listen to.
 	 * @param listener Listener to add to this event.
+	 * @param queueCapacity Maximum number of events pending for this listener.
+	 * @param overflowPolicy What to do when an event is raised and the maximum number of pending events is reached.
 	 * @param <T> type of the event.
+	 * @return Registration of the listener, that can be used to remove it.
 	 */
-	public <T> void addEventListener(EventType<T> event, Consumer<T> listener) {
-		@SuppressWarnings("unchecked") EventType<Object> eventCast = (EventType<Object>) event;
+	public <T> ListenerRegistration addEventListener(EventType<T> event, Consumer<T> listener, int queueCapacity, OverflowPolicy overflowPolicy) {
+		if (queueCapacity <= 0) {
+			throw new IllegalArgumentException("The capacity of the queue must be strictly positive, was " + queueCapacity);
+		}
 		@SuppressWarnings("unchecked") Consumer<Object> listenerCast = (Consumer<Object>) listener;
-		chatEventListeners.computeIfAbsent(eventCast, e -> new ArrayList<>()).add(listenerCast);
+		Objects.requireNonNull(overflowPolicy);
+		EventListenerQueue<Object> queue = metrics.isEnabled() ? new EventListenerQueue<>(listenerCast, eventExecutor, queueCapacity, overflowPolicy, metrics.listenerDispatch(event), metrics.listenerQueueDepth(event)) : new EventListenerQueue<>(listenerCast, eventExecutor, queueCapacity, overflowPolicy);
+		return chatEventListeners.add(event, queue);
+	}
+
+	/**
+	 * Returns the number of events that were raised in this room, but are still waiting to be processed by the listeners.
+	 * An event waiting for several listeners is counted once per listener.
+	 * @return Number of pending events.
+	 */
+	public int getPendingEventCount() {
+		return chatEventListeners.all().mapToInt(EventListenerQueue::size).sum();
+	}
+
+	/**
+	 * Returns the number of events that were discarded, because the queue of pending events of their listener was full.
+	 * @return Number of discarded events.
+	 * @see OverflowPolicy
+	 */
+	public long getDroppedEventCount() {
+		return chatEventListeners.all().mapToLong(EventListenerQueue::droppedCount).sum();
+	}
+
+	/**
+	 * Returns the number of actions made in this room, like sending or editing messages, that were not yet sent to the chat server or are
+	 * waiting for its response.
+	 * @return Number of pending actions.
+	 */
+	public int getPendingActionCount() {
+		return pendingActionCount.get();
 	}
 
-	private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
-		return CompletableFuture.supplyAsync(supplier, executor).whenComplete((res, thr) -> {
+	/**
+	 * Returns the estimated time an action made now in this room would wait before being sent to the chat server.
+	 * <p>Actions are limited in rate, per room and for the account across all the rooms of this host, so that they are spaced before the chat
+	 * server throttles them. The rate is learnt from the throttles of the chat server. This estimate accounts for the actions already
+	 * pending in this room: callers can use it to group messages together, or to drop them, when the wait is too long.
+	 * @return Estimated wait before an action made now is sent.
+	 */
+	public Duration getRateLimitWaitTime() {
+		int actions = pendingActionCount.get() + 1;
+		return Duration.ofNanos(Math.max(rateLimiter.waitTime(actions), accountRateLimiter.waitTime(actions)));
+	}
+
+	private static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof ChatOperationException ? (ChatOperationException) e.getCause() : new ChatOperationException(e.getCause());
+		}
+	}
+
+	/**
+	 * Queues the given action after the actions previously made in this room, so that they reach the chat server in order. Once it
+	 * reaches the head of the queue, the action waits for the rate limiters of this room and of the account before being sent. No thread
+	 * is held while an action waits for its HTTP response, or for a throttle to expire. The returned future completes on the thread
+	 * of this room.
+	 */
+	private <T> CompletableFuture<T> enqueue(Supplier<CompletableFuture<T>> action) {
+		return enqueue(NOW, action);
+	}
+
+	/**
+	 * Queues the given action like {@link #enqueue(Supplier)}, but once it reaches the head of the queue, the action also waits for the
+	 * given stage to complete, keeping its place meanwhile. If the stage completes exceptionally, the action isn't sent.
+	 */
+	private <T> CompletableFuture<T> enqueue(CompletionStage<Void> after, Supplier<CompletableFuture<T>> action) {
+		pendingActionCount.incrementAndGet();
+		CompletableFuture<T> result;
+		synchronized (actionLock) {
+			result = lastAction.handle((res, thr) -> null)
+					.thenCompose(v -> after)
+					.thenCompose(v -> acquireRateLimit())
+					.thenCompose(v -> action.get());
+			lastAction = result;
+		}
+		result.whenComplete((res, thr) -> pendingActionCount.decrementAndGet());
+		return result.whenCompleteAsync((res, thr) -> {
 			if (res != null) LOGGER.trace("Task completed successfully with result: {}", res);
 			if (thr != null) LOGGER.error("Couldn't execute task", thr);
-		});
+		}, executor);
 	}
 
 	/**
 	 * Sends the given message asynchronously.
+	 * <p>A message too long to be sent as a single chat message is split into several parts; the returned stage then holds the id of the
+	 * last part, and completes exceptionally if any part failed. Refer to {@link #sendAll(String, PartFailurePolicy)} to retrieve the ids
+	 * of all the parts.
 	 * @param message Content of the message to send.
 	 * @return A future holding the id of the sent message.
 	 */
 	public CompletionStage<Long> send(String message) {
+		return send(message, UUID.randomUUID().toString());
+	}
+
+	/**
+	 * Sends the given message asynchronously, identified by the given idempotency key.
+	 * <p>When an outbox is enabled with {@link #enableOutbox(Path)}, sending a message with the key of a message that is still pending,
+	 * or that was recently sent, returns the id of that message instead of sending it again. This allows a process to send again, after
+	 * a restart, the messages it isn't sure were sent. Without an outbox, the key is ignored.
+	 * @param message Content of the message to send.
+	 * @param idempotencyKey Key identifying the message.
+	 * @return A future holding the id of the sent message.
+	 */
+	public CompletionStage<Long> send(String message, String idempotencyKey) {
 		LOGGER.info("Task added - sending message '{}' to room {}.", message, roomId);
-		List<String> parts = toParts(message, MAX_CHAT_MESSAGE_LENGTH);
-		// only return the id of the last message (this way, the 99.99% case of a single message works just as before)
-		for (int i = 0; i < parts.size() - 1; i++) {
-			String part = parts.get(i);
-			supplyAsync(() -> {
-				JsonElement element = post(hostUrlBase + "/chats/" + roomId + "/messages/new", "text", part);
-				LOGGER.debug("Message '{}' sent to room {}, raw result: {}", part, roomId, element);
-				return element.getAsJsonObject().get("id").getAsLong();
+		Outbox outbox = this.outbox;
+		return outbox == null ? sendMessage(message, NOW) : outbox.submit(new Outbox.Action(idempotencyKey, "send", 0, message), this::deliver);
+	}
+
+	/**
+	 * Sends the given message once the given stage completes. Without batching, the message is queued right away.
+	 */
+	private CompletableFuture<Long> sendMessage(String message, CompletableFuture<Void> after) {
+		MessageBatcher batcher = messageBatcher;
+		if (batcher == null) return sendNow(message, after);
+		// the outbox makes its records durable in order, so the messages still reach the batcher in order
+		return after.thenCompose(v -> batcher.submit(message));
+	}
+
+	/**
+	 * Makes the messages sent and edited in this room durable, by recording them in the given journal before they are delivered to the
+	 * chat server.
+	 * <p>An action takes its place among the other actions of the room as soon as it is made, and waits there for its record to be
+	 * durable: actions reach the chat server in the order they were made, whether they go through the outbox or not.
+	 * <p>The actions recorded in the journal, but not yet delivered when the process stopped, are delivered again, in order, when the
+	 * outbox is enabled: it should be enabled right after joining the room, before sending messages. Delivery is at least once, so
+	 * an action delivered right before the process stopped can be delivered twice. Each room needs its own journal.
+	 * @param journal Path of the journal file, created if it doesn't exist.
+	 */
+	public void enableOutbox(Path journal) {
+		Outbox outbox;
+		try {
+			outbox = new Outbox(journal, fetchExecutor);
+		} catch (IOException e) {
+			throw new ChatOperationException("Cannot open the outbox " + journal, e);
+		}
+		this.outbox = outbox;
+		List<Outbox.Action> actions = outbox.pending();
+		if (!actions.isEmpty()) {
+			LOGGER.info("Replaying {} pending actions of the outbox {} in room {}", actions.size(), journal, roomId);
+		}
+		for (Outbox.Action action : actions) {
+			outbox.submit(action, this::deliver).whenComplete((id, thr) -> {
+				if (thr != null) LOGGER.error("Cannot replay the action {} of the outbox in room {}", action.getKey(), roomId, thr);
 			});
 		}
-		String part = parts.get(parts.size() - 1);
-		return supplyAsync(() -> {
-			JsonElement element = post(hostUrlBase + "/chats/" + roomId + "/messages/new", "text", part);
+	}
+
+	private CompletableFuture<Long> deliver(Outbox.Action action, CompletableFuture<Void> durable) {
+		switch (action.getType()) {
+		case "send": return sendMessage(action.getText(), durable);
+		case "edit": return editNow(action.getMessageId(), action.getText(), durable);
+		default: return failed(new ChatOperationException("Unknown action " + action.getType() + " in the outbox"));
+		}
+	}
+
+	/**
+	 * Enables or disables the batching of the messages sent in this room.
+	 * <p>When enabled, the messages sent within the given window of time, starting with the first one, are merged together, one per line,
+	 * into as few chat messages as possible. The stage returned by {@link #send(String)} then holds the id of the chat message that carried
+	 * the text. This is useful to report many things in a short period of time without being throttled by the chat server. Note that
+	 * the chat server doesn't render Markdown in messages having multiple lines.
+	 * <p>Replies, fixed-font messages, one-boxed links and messages that are too long or have multiple lines are never merged and sent
+	 * on their own, in order.
+	 * <p>Batching is disabled by default. Disabling it, or changing the window, sends the pending messages right away.
+	 * @param window Window of time during which messages are merged, or 0 to disable batching.
+	 * @param unit Unit of the window.
+	 */
+	public void setMessageBatchingWindow(long window, TimeUnit unit) {
+		MessageBatcher previous;
+		synchronized (actionLock) {
+			previous = messageBatcher;
+			messageBatcher = window > 0 ? new MessageBatcher(this::sendNow, executor, unit.toMillis(window), MAX_CHAT_MESSAGE_LENGTH) : null;
+		}
+		if (previous != null) {
+			previous.flush();
+		}
+	}
+
+	private CompletableFuture<Long> sendNow(String message) {
+		return sendNow(message, NOW);
+	}
+
+	private CompletableFuture<Long> sendNow(String message, CompletableFuture<Void> after) {
+		// only return the id of the last message (this way, the 99.99% case of a single message works just as before)
+		return sendParts(message, PartFailurePolicy.STOP, after).thenApply(ids -> ids.get(ids.size() - 1));
+	}
+
+	/**
+	 * Sends the given message asynchronously, returning the ids of all the chat messages it was split into.
+	 * <p>Messages longer than what the chat server allows are split into several parts. The parts are queued right away, one after the
+	 * other, so that they are posted in order and contiguously, even when they are throttled by the chat server; this method never blocks,
+	 * so that many messages can be queued at once. When a part fails to be sent, the following parts are not sent, and the returned stage
+	 * completes exceptionally: the given policy tells whether the parts already sent are deleted.
+	 * <p>Contrary to {@link #send(String)}, the message is never batched with other messages.
+	 * @param message Content of the message to send.
+	 * @param failurePolicy What to do with the parts already sent when a part fails.
+	 * @return A future holding the ids of the parts sent, in order.
+	 */
+	public CompletionStage<List<Long>> sendAll(String message, PartFailurePolicy failurePolicy) {
+		LOGGER.info("Task added - sending message '{}' to room {}.", message, roomId);
+		return sendParts(message, failurePolicy, NOW);
+	}
+
+	private CompletableFuture<List<Long>> sendParts(String message, PartFailurePolicy failurePolicy, CompletableFuture<Void> after) {
+		List<String> parts = MessageSplitter.split(message, MAX_CHAT_MESSAGE_LENGTH);
+		List<CompletableFuture<Long>> ids = new ArrayList<>(parts.size());
+		AtomicBoolean failed = new AtomicBoolean();
+		synchronized (actionLock) { // keeps the parts contiguous in the queue of actions
+			for (String part : parts) {
+				ids.add(enqueue(after, () -> {
+					if (failed.get()) return failed(new ChatOperationException("Part not sent because a previous part of the message failed"));
+					return postPart(part).whenComplete((id, thr) -> {
+						if (thr != null) failed.set(true);
+					});
+				}));
+			}
+		}
+		CompletableFuture<List<Long>> result = new CompletableFuture<>();
+		CompletableFuture.allOf(ids.toArray(new CompletableFuture<?>[ids.size()])).whenComplete((v, thr) -> {
+			if (thr == null) {
+				result.complete(ids.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+				return;
+			}
+			Throwable cause = thr instanceof CompletionException ? thr.getCause() : thr;
+			if (failurePolicy == PartFailurePolicy.DELETE_SENT_PARTS) {
+				ids.stream().filter(id -> !id.isCompletedExceptionally()).forEach(id -> delete(id.join()));
+			}
+			result.completeExceptionally(cause);
+		});
+		return result;
+	}
+
+	private static <T> CompletableFuture<T> failed(Throwable throwable) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		future.completeExceptionally(throwable);
+		return future;
+	}
+
+	private CompletableFuture<Long> postPart(String part) {
+		return postAsync(hostUrlBase + "/chats/" + roomId + "/messages/new", "text", part).thenApply(element -> {
 			LOGGER.debug("Message '{}' sent to room {}, raw result: {}", part, roomId, element);
 			return element.getAsJsonObject().get("id").getAsLong();
 		});
@@ -308,13 +851,7 @@ public final class Room {
 	 * @return URL of the uploaded image.
 	 */
 	public CompletionStage<String> uploadImage(String fileName, InputStream inputStream) {
-		return supplyAsync(() -> {
-			Response response;
-			try {
-				response = httpClient.postWithFile(hostUrlBase + "/upload/image", cookies, "filename", fileName, inputStream);
-			} catch (IOException e) {
-				throw new ChatOperationException("Failed to upload image.", e);
-			}
+		return enqueue(() -> execute(new HttpRequest(Method.POST, hostUrlBase + "/upload/image", cookies, "filename", fileName, inputStream)).thenApply(response -> {
 			String html = Jsoup.parse(response.body()).getElementsByTag("script").first().html();
 			Matcher failedUploadMatcher = FAILED_UPLOAD_PATTERN.matcher(html);
 			if (failedUploadMatcher.find()) {
@@ -326,45 +863,7 @@ public final class Room {
 			}
 			LOGGER.error("Tried to upload {} in room {} but couldn't parse result {}", fileName, roomId, html);
 			throw new ChatOperationException("Failed to upload image.");
-		});
-	}
-
-	private static List<String> toParts(String message, int maxPartLength) {
-		if (message.length() <= maxPartLength || (message.trim().contains("\n") && !message.trim().endsWith("\n"))) {
-			return Arrays.asList(message);
-		}
-		List<String> messages = new ArrayList<>();
-		while (message.length() > maxPartLength) {
-			List<Integer[]> nonBreakingIndexes = identifyNonBreakingIndexes(message);
-			int breakIndex = message.lastIndexOf(' ', maxPartLength);
-			if (breakIndex < 0) breakIndex = maxPartLength; // 500 chars with no space =/, let's try to break at the max possible
-			for (Integer[] bounds : nonBreakingIndexes) {
-				if (bounds[0] < breakIndex && breakIndex < bounds[1]) {
-					breakIndex = bounds[0] - 1;
-					break;
-				}
-			}
-			if (breakIndex < 0) {
-				// we did our best, but this part starts with a non breaking index, and ends further than what is allowed...
-				throw new ChatOperationException("Cannot send message: it is longer than " + maxPartLength + " characters and cannot be broken into adequate parts");
-			}
-			messages.add(message.substring(0, breakIndex));
-			message = message.substring(breakIndex + 1);
-		}
-		if (!message.isEmpty()) {
-			messages.add(message);
-		}
-		return messages;
-	}
-
-	private static List<Integer[]> identifyNonBreakingIndexes(String message) {
-		// identify non-breaking parts: links.
-		List<Integer[]> nonBreakingParts = new ArrayList<>();
-		Matcher matcher = MARKDOWN_LINK_PATTERN.matcher(message);
-		while (matcher.find()) {
-			nonBreakingParts.add(new Integer[] { matcher.start(), matcher.end() });
-		}
-		return nonBreakingParts;
+		}));
 	}
 
 	/**
@@ -385,14 +884,20 @@ public final class Room {
 	 */
 	public CompletionStage<Long> edit(long messageId, String message) {
 		LOGGER.info("Task added - editing message {} in room {}.", messageId, roomId);
-		return supplyAsync(() -> {
-			String result = post(hostUrlBase + "/messages/" + messageId, "text", message).getAsString();
+		Outbox outbox = this.outbox;
+		return outbox == null ? editNow(messageId, message, NOW) : outbox.submit(new Outbox.Action(UUID.randomUUID().toString(), "edit", messageId, message), this::deliver);
+	}
+
+	private CompletableFuture<Long> editNow(long messageId, String message, CompletableFuture<Void> after) {
+		return enqueue(after, () -> postAsync(hostUrlBase + "/messages/" + messageId, "text", message).thenApply(element -> {
+			String result = element.getAsString();
 			LOGGER.debug("Message {} edited to '{}' in room {}, raw result: {}", messageId, message, roomId, result);
 			if (!SUCCESS.equals(result)) {
 				throw new ChatOperationException("Cannot edit message " + messageId + ". Reason: " + result);
 			}
+			messageCache.invalidate(messageId);
 			return messageId;
-		});
+		}));
 	}
 
 	/**
@@ -421,14 +926,15 @@ public final class Room {
 	 */
 	public CompletionStage<Void> delete(long messageId) {
 		LOGGER.info("Task added - deleting message {} in room {}.", messageId, roomId);
-		return supplyAsync(() -> {
-			String result = post(hostUrlBase + "/messages/" + messageId + "/delete").getAsString();
+		return enqueue(() -> postAsync(hostUrlBase + "/messages/" + messageId + "/delete").thenApply(element -> {
+			String result = element.getAsString();
 			LOGGER.debug("Message {} deleted in room {}, raw result: {}", messageId, roomId, result);
 			if (!SUCCESS.equals(result)) {
 				throw new ChatOperationException("Cannot delete message " + messageId + ". Reason: " + result);
 			}
+			messageCache.invalidate(messageId);
 			return null;
-		});
+		}));
 	}
 
 	/**
@@ -439,14 +945,15 @@ public final class Room {
 	 */
 	public CompletionStage<Void> toggleStar(long messageId) {
 		LOGGER.info("Task added - starring/unstarring message {} in room {}.", messageId, roomId);
-		return supplyAsync(() -> {
-			String result = post(hostUrlBase + "/messages/" + messageId + "/star").getAsString();
+		return enqueue(() -> postAsync(hostUrlBase + "/messages/" + messageId + "/star").thenApply(element -> {
+			String result = element.getAsString();
 			LOGGER.debug("Message {} starred/unstarred in room {}, raw result: {}", messageId, roomId, result);
 			if (!SUCCESS.equals(result)) {
 				throw new ChatOperationException("Cannot star/unstar message " + messageId + ". Reason: " + result);
 			}
+			messageCache.invalidate(messageId);
 			return null;
-		});
+		}));
 	}
 
 	/**
@@ -457,14 +964,15 @@ public final class Room {
 	 */
 	public CompletionStage<Void> togglePin(long messageId) {
 		LOGGER.info("Task added - pining/unpining message {} in room {}.", messageId, roomId);
-		return supplyAsync(() -> {
-			String result = post(hostUrlBase + "/messages/" + messageId + "/owner-star").getAsString();
+		return enqueue(() -> postAsync(hostUrlBase + "/messages/" + messageId + "/owner-star").thenApply(element -> {
+			String result = element.getAsString();
 			LOGGER.debug("Message {} pined/unpined in room {}, raw result: {}", messageId, roomId, result);
 			if (!SUCCESS.equals(result)) {
 				throw new ChatOperationException("Cannot pin/unpin message " + messageId + ". Reason: " + result);
 			}
+			messageCache.invalidate(messageId);
 			return null;
-		});
+		}));
 	}
 
 	/**
@@ -481,10 +989,95 @@ public final class Room {
 
 	/**
 	 * Retrieves the {@link Message} having the given id.
+	 * <p>Messages are cached once fetched. The cache is kept up to date with the stars, edits and deletions raised as chat events in
+	 * this room, so repeated lookups of the same message don't make further requests.
 	 * @param messageId Id of the message to fetch.
 	 * @return Message with the given id.
 	 */
 	public Message getMessage(long messageId) {
+		return join(getMessageAsync(messageId).toCompletableFuture());
+	}
+
+	/**
+	 * Retrieves asynchronously the {@link Message} having the given id.
+	 * <p>Contrary to the other asynchronous methods of this class, fetches are not queued behind the actions made in this room
+	 * (like sending messages) and can run concurrently.
+	 * @param messageId Id of the message to fetch.
+	 * @return A future holding the message with the given id.
+	 */
+	public CompletionStage<Message> getMessageAsync(long messageId) {
+		Tracer.Span span = tracer.startChildOfCurrent("chat.message.fetch");
+		Message cached = messageCache.get(messageId);
+		CompletionStage<Message> message;
+		if (cached != null) {
+			message = CompletableFuture.completedFuture(cached);
+		} else {
+			message = CompletableFuture.supplyAsync(() -> fetchMessage(messageId), fetchExecutor).thenCompose(Function.identity()).thenApply(m -> {
+				messageCache.put(messageId, m);
+				return m;
+			});
+		}
+		return span == null ? message : traced(message, span.attribute("message.id", messageId).attribute("cached", cached != null));
+	}
+
+	/**
+	 * Returns the messages of this room, from the most recent to the oldest.
+	 * @return Lazy stream of the messages of this room.
+	 * @see #getHistory(long, int)
+	 */
+	public Stream<Message> getHistory() {
+		return getHistory(0, DEFAULT_HISTORY_PREFETCH);
+	}
+
+	/**
+	 * Returns the messages of this room posted before the given message, from the most recent to the oldest.
+	 * @param beforeMessageId Id of the message before which to start.
+	 * @return Lazy stream of the messages of this room.
+	 * @see #getHistory(long, int)
+	 */
+	public Stream<Message> getHistory(long beforeMessageId) {
+		return getHistory(beforeMessageId, DEFAULT_HISTORY_PREFETCH);
+	}
+
+	/**
+	 * Returns the messages of this room posted before the given message, from the most recent to the oldest.
+	 * <p>The stream is lazy: the history is fetched by pages of {@value #HISTORY_PAGE_SIZE} messages as the stream is consumed, and
+	 * up to <code>prefetch</code> ranges of the history are fetched concurrently ahead of the consumer. Pages are paced by their own rate
+	 * limit, and throttled requests are retried once the throttle expires. Messages are built from the data of the history pages: like
+	 * messages of chat events, their user and plain content are fetched the first time they are requested. They are not cached.
+	 * @param beforeMessageId Id of the message before which to start, or <code>0</code> to start with the most recent message.
+	 * @param prefetch Maximum number of ranges of the history fetched concurrently.
+	 * @return Lazy stream of the messages of this room.
+	 */
+	public Stream<Message> getHistory(long beforeMessageId, int prefetch) {
+		MessageHistory history = new MessageHistory(this::fetchHistoryPage, beforeMessageId, HISTORY_PAGE_SIZE, prefetch);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(history, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+	}
+
+	private CompletableFuture<MessageHistory.Page> fetchHistoryPage(long before) {
+		String url = hostUrlBase + "/chats/" + roomId + "/events";
+		String[] data = before > 0
+			? new String[] { "before", String.valueOf(before), "mode", "Messages", "msgCount", String.valueOf(HISTORY_PAGE_SIZE) }
+			: new String[] { "mode", "Messages", "msgCount", String.valueOf(HISTORY_PAGE_SIZE) };
+		return delay(historyRateLimiter.reserve(), TimeUnit.NANOSECONDS).thenCompose(v -> postAsync(url, data)).thenApply(element -> {
+			JsonArray events = element.getAsJsonObject().get("events").getAsJsonArray();
+			LOGGER.trace("Retrieved {} messages of room {} before message {}", events.size(), roomId, before);
+			List<Message> messages = Events.fromJsonData(events, this).stream().filter(MessageEvent.class::isInstance).map(e -> toMessage((MessageEvent) e)).collect(Collectors.toList());
+			// the entries that are not messages count in the page too
+			return new MessageHistory.Page(messages, events.size() < HISTORY_PAGE_SIZE);
+		});
+	}
+
+	/**
+	 * Returns the statistics of the cache of messages of this room. Messages are cached once they have been fetched, and are kept
+	 * up to date with the stars, edits and deletions received as chat events.
+	 * @return Statistics of the cache of messages.
+	 */
+	public CacheStatistics getMessageCacheStatistics() {
+		return messageCache.statistics();
+	}
+
+	private CompletionStage<Message> fetchMessage(long messageId) {
 		Document documentHistory;
 		String content;
 		try {
@@ -494,27 +1087,14 @@ public final class Room {
 			if (e.getStatusCode() == 404) {
 				LOGGER.debug("Tried to view deleted message {}", messageId);
 				// non-RO cannot see deleted message of another user: so if 404, it means message is deleted
-				return new Message(messageId, null, null, null, true, 0, false, 0);
+				return CompletableFuture.completedFuture(Message.deleted(messageId));
 			}
 			throw new ChatOperationException(e);
 		} catch (IOException e) {
 			throw new ChatOperationException(e);
 		}
-		Elements contents = documentHistory.select(".messages .content");
-		String plainContent = contents.get(1).select(".message-source").first().text();
-		Element starVoteContainer = documentHistory.select(".messages .flash .stars.vote-count-container").first();
-		int starCount;
-		if (starVoteContainer == null) {
-			starCount = 0;
-		} else {
-			Element times = starVoteContainer.select(".times").first();
-			starCount = times == null || !times.hasText() ? 1 : Integer.parseInt(times.text());
-		}
-		boolean pinned = !documentHistory.select(".vote-count-container.stars.owner-star").isEmpty();
-		int editCount = contents.size() - 2; // -2 to remove the current version and the first version
-		User user = getUser(Long.parseLong(documentHistory.select(".username > a").first().attr("href").split("/")[2]));
-		boolean deleted = contents.stream().anyMatch(e -> e.getElementsByTag("b").html().equals("deleted"));
-		return new Message(messageId, user, plainContent, content, deleted, starCount, pinned, editCount);
+		MessageHistoryPage page = MessageHistoryPage.parse(documentHistory);
+		return getUserAsync(page.getUserId()).thenApply(user -> new Message(messageId, user, page.getPlainContent(), content, page.isDeleted(), page.getStarCount(), page.isPinned(), page.getEditCount()));
 	}
 
 	/**
@@ -523,7 +1103,7 @@ public final class Room {
 	 * @return List of pingable users of this room.
 	 */
 	public List<User> getPingableUsers() {
-		return getUsers(pingableUserIds, currentUserIds::contains);
+		return getUsers(pingableUserIds, presence::contains);
 	}
 
 	private void syncPingableUsers() {
@@ -543,46 +1123,114 @@ public final class Room {
 	 * @return List of current users of this room.
 	 */
 	public List<User> getCurrentUsers() {
-		return getUsers(currentUserIds, id -> true);
+		return getUsers(LongStream.of(presence.toArray()).boxed().collect(Collectors.toList()), id -> true);
+	}
+
+	/**
+	 * Tells whether the given user is currently present in this room.
+	 * <p>Presence is tracked from the users entering and leaving the room, and synchronized again with the chat server whenever the
+	 * connection to it is recovered. Changes are raised as {@link EventType#USER_PRESENCE_CHANGED} events.
+	 * @param userId Id of the user.
+	 * @return Whether the user is currently present in this room.
+	 */
+	public boolean isUserPresent(long userId) {
+		return presence.contains(userId);
+	}
+
+	/**
+	 * Returns the last time the given user was seen in this room: the current instant if the user is present, or the instant they left
+	 * the room otherwise. Users that left before this room was joined have no known last seen instant.
+	 * @param userId Id of the user.
+	 * @return Last time the user was seen in this room, if it is known.
+	 */
+	public Optional<Instant> getLastSeen(long userId) {
+		if (presence.contains(userId)) return Optional.of(Instant.now());
+		long lastSeen = presence.lastSeen(userId);
+		return lastSeen < 0 ? Optional.empty() : Optional.of(Instant.ofEpochSecond(lastSeen));
 	}
 
 	private void syncCurrentUsers() {
-		Document document;
-		try {
-			document = httpClient.get(hostUrlBase + "/rooms/" + roomId, cookies).parse();
-		} catch (IOException e) {
-			throw new ChatOperationException(e);
-		}
+		syncCurrentUsers(fetchRoomPage());
+	}
+
+	private void syncCurrentUsers(Document document) {
 		String html = document.getElementsByTag("script").get(3).html();
 		Matcher matcher = CURRENT_USERS_PATTERN.matcher(html);
-		currentUserIds.clear();
+		LongStream.Builder userIds = LongStream.builder();
 		while (matcher.find()) {
-			currentUserIds.add(Long.valueOf(matcher.group(1)));
+			userIds.add(Long.parseLong(matcher.group(1)));
 		}
+		long[] present = userIds.build().toArray();
+		Instant now = Instant.now();
+		// replaced in order with the presence changes raised by the events, but dispatched once the presence set is released
+		queueDispatch(() -> {
+			List<Event> changes = new ArrayList<>();
+			presence.replace(present, now.getEpochSecond(),
+				userId -> changes.add(Events.presenceChanged(this, userId, true, now, null)),
+				userId -> changes.add(Events.presenceChanged(this, userId, false, now, now)));
+			changes.forEach(this::dispatch);
+		});
 	}
 
 	/**
 	 * Retrieves the {@link User} having the given id.
+	 * <p>Users are cached for a few minutes, so the returned user can be slightly out of date with regard to, e.g., their reputation.
 	 * @param userId Id of the user to fetch.
 	 * @return User with the given id.
 	 */
 	public User getUser(long userId) {
-		return getUsers(Arrays.asList(userId), currentUserIds::contains).get(0);
+		return join(getUserAsync(userId).toCompletableFuture());
+	}
+
+	/**
+	 * Retrieves asynchronously the {@link User} having the given id.
+	 * <p>Contrary to the other asynchronous methods of this class, fetches are not queued behind the actions made in this room
+	 * (like sending messages) and can run concurrently. Lookups of users made at the same time are grouped in a single request.
+	 * @param userId Id of the user to fetch.
+	 * @return A future holding the user with the given id.
+	 */
+	public CompletionStage<User> getUserAsync(long userId) {
+		Tracer.Span span = tracer.startChildOfCurrent("chat.user.fetch");
+		CompletionStage<User> user = loadUser(userId).thenApply(object -> {
+			if (object == null) {
+				throw new ChatOperationException("Cannot find user with id " + userId);
+			}
+			return toUser(object, presence::contains);
+		});
+		return span == null ? user : traced(user, span.attribute("user.id", userId));
+	}
+
+	private static <T> CompletionStage<T> traced(CompletionStage<T> stage, Tracer.Span span) {
+		return stage.whenComplete((result, t) -> {
+			if (t != null) {
+				span.attribute("error", t.toString());
+			}
+			span.end();
+		});
 	}
 
 	private List<User> getUsers(Iterable<Long> userIds, LongPredicate inRoom) {
-		String ids = StreamSupport.stream(userIds.spliterator(), false).map(Object::toString).collect(Collectors.joining(","));
-		return StreamSupport.stream(post(hostUrlBase + "/user/info", "ids", ids, "roomId", String.valueOf(roomId)).getAsJsonObject().get("users").getAsJsonArray().spliterator(), false).map(JsonElement::getAsJsonObject).map(object -> {
-			long id = object.get("id").getAsLong();
-			String userName = object.get("name").getAsString();
-			int reputation = object.get("reputation").getAsInt();
-			boolean moderator = object.get("is_moderator").isJsonNull() ? false : object.get("is_moderator").getAsBoolean();
-			boolean owner = object.get("is_owner").isJsonNull() ? false : object.get("is_owner").getAsBoolean();
-			Instant lastSeen = object.get("last_seen").isJsonNull() ? null : Instant.ofEpochSecond(object.get("last_seen").getAsLong());
-			Instant lastMessage = object.get("last_post").isJsonNull() ? null : Instant.ofEpochSecond(object.get("last_post").getAsLong());
-			String profileLink = hostUrlBase + "/users/" + id;
-			return new User(id, userName, reputation, moderator, owner, lastSeen, lastMessage, inRoom.test(id), profileLink);
-		}).collect(Collectors.toList());
+		List<CompletableFuture<JsonObject>> users = StreamSupport.stream(userIds.spliterator(), false).map(this::loadUser).collect(Collectors.toList());
+		return users.stream().map(Room::join).filter(Objects::nonNull).map(object -> toUser(object, inRoom)).collect(Collectors.toList());
+	}
+
+	private CompletableFuture<JsonObject> loadUser(long userId) {
+		JsonObject cached = userCache.get(roomId, userId);
+		return cached != null ? CompletableFuture.completedFuture(cached) : userInfoBatcher.load(userId);
+	}
+
+	private CompletableFuture<JsonArray> fetchUsers(String ids) {
+		return postAsync(hostUrlBase + "/user/info", "ids", ids, "roomId", String.valueOf(roomId)).thenApply(element -> {
+			JsonArray users = element.getAsJsonObject().get("users").getAsJsonArray();
+			for (JsonElement user : users) {
+				userCache.put(roomId, user.getAsJsonObject().get("id").getAsLong(), user.getAsJsonObject());
+			}
+			return users;
+		});
+	}
+
+	private User toUser(JsonObject object, LongPredicate inRoom) {
+		return User.fromJson(object, hostUrlBase, inRoom);
 	}
 
 	/**
@@ -621,9 +1269,16 @@ public final class Room {
 	}
 
 	void close() {
+		webSocket.unregister(this);
+		if (outbox != null) {
+			outbox.close();
+		}
+		if (eventJournal != null) {
+			eventJournal.close();
+		}
 		executor.shutdown();
 		eventExecutor.shutdown();
-		closeWebSocket();
+		fetchExecutor.shutdown();
 	}
 
 }
@@ -0,0 +1,122 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.HttpStatusException;
+
+import fr.tunaki.stackoverflow.chat.event.EventType;
+
+/**
+ * Meters of a room, resolved from a {@link MetricsRegistry} when the room is joined, so that recording a measure only updates a meter.
+ * <p>When the registry is disabled, nothing is measured: the HTTP client isn't instrumented, and the listener queues do not timestamp
+ * the events.
+ * @author Tunaki
+ */
+final class RoomMetrics {
+
+	private final MetricsRegistry registry;
+	private final String host, room;
+	private final boolean enabled;
+
+	private final MetricsRegistry.Counter[] eventsReceived = new MetricsRegistry.Counter[EventType.count()];
+	private final MetricsRegistry.Timer throttleWait;
+	private final MetricsRegistry.Counter fkeyRefreshes;
+	private final Map<String, MetricsRegistry.Timer> httpRequests = new ConcurrentHashMap<>();
+
+	RoomMetrics(MetricsRegistry registry, ChatHost host, int roomId) {
+		this.registry = registry;
+		this.host = host.getName();
+		this.room = String.valueOf(roomId);
+		this.enabled = registry.isEnabled();
+		throttleWait = registry.timer("chat.throttle.wait", "host", this.host, "room", room);
+		fkeyRefreshes = registry.counter("chat.fkey.refreshes", "host", this.host, "room", room);
+	}
+
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	void eventReceived(EventType<?> type) {
+		if (!enabled) return;
+		MetricsRegistry.Counter counter = eventsReceived[type.ordinal()];
+		if (counter == null) {
+			// racing threads resolve the same counter from the registry
+			counter = eventsReceived[type.ordinal()] = registry.counter("chat.events.received", "host", host, "room", room, "type", type.name());
+		}
+		counter.increment();
+	}
+
+	void throttled(long wait, TimeUnit unit) {
+		throttleWait.record(wait, unit);
+	}
+
+	void fkeyRefreshed() {
+		fkeyRefreshes.increment();
+	}
+
+	MetricsRegistry.Timer listenerDispatch(EventType<?> type) {
+		return registry.timer("chat.listener.dispatch", "host", host, "room", room, "type", type.name());
+	}
+
+	MetricsRegistry.Summary listenerQueueDepth(EventType<?> type) {
+		return registry.summary("chat.listener.queue.depth", "host", host, "room", room, "type", type.name());
+	}
+
+	/**
+	 * Returns an HTTP client timing the requests sent with the given client, or the given client itself when the registry is disabled.
+	 * @param httpClient HTTP client to instrument.
+	 * @return Instrumented HTTP client.
+	 */
+	HttpClient instrument(HttpClient httpClient) {
+		if (!enabled) return httpClient;
+		return request -> {
+			long start = System.nanoTime();
+			CompletableFuture<HttpResponse> response = httpClient.execute(request);
+			response.whenComplete((r, t) -> httpRequest(request, status(r, t)).record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+			return response;
+		};
+	}
+
+	private MetricsRegistry.Timer httpRequest(HttpRequest request, String status) {
+		String method = request.getMethod().name();
+		String endpoint = endpoint(request.getUrl());
+		return httpRequests.computeIfAbsent(method + ' ' + endpoint + ' ' + status, k -> registry.timer("chat.http.requests", "host", host, "room", room, "method", method, "endpoint", endpoint, "status", status));
+	}
+
+	private static String status(HttpResponse response, Throwable t) {
+		if (response != null) return String.valueOf(response.statusCode());
+		Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+		return cause instanceof HttpStatusException ? String.valueOf(((HttpStatusException) cause).getStatusCode()) : "IO_ERROR";
+	}
+
+	/**
+	 * Returns the path of the given URL, without its query, where the segments made of digits are replaced by <code>{id}</code>.
+	 */
+	static String endpoint(String url) {
+		int start = url.indexOf("://");
+		start = start < 0 ? 0 : url.indexOf('/', start + 3);
+		if (start < 0) return "/";
+		int end = url.indexOf('?', start);
+		if (end < 0) end = url.length();
+		StringBuilder sb = new StringBuilder(end - start);
+		int segment = start;
+		while (segment < end) {
+			int next = url.indexOf('/', segment + 1);
+			if (next < 0 || next > end) next = end;
+			boolean digits = next > segment + 1;
+			for (int i = segment + 1; i < next && digits; i++) {
+				digits = Character.isDigit(url.charAt(i));
+			}
+			sb.append('/');
+			if (digits) sb.append("{id}");
+			else sb.append(url, segment + 1, next);
+			segment = next;
+		}
+		return sb.length() == 0 ? "/" : sb.toString();
+	}
+
+}
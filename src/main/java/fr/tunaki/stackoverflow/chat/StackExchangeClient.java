@@ -4,13 +4,27 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
-import org.jsoup.Connection.Response;
 import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,14 +38,27 @@ public class StackExchangeClient implements AutoCloseable {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(StackExchangeClient.class);
 
-	private static final Pattern OPEN_ID_PROVIDER_PATTERN = Pattern.compile("(https://openid.stackexchange.com/user/.*?)\"");
+	private static final int USER_CACHE_MAXIMUM_SIZE = 10_000;
+	private static final int USER_CACHE_EXPIRATION_MINUTES = 5;
+	private static final int ACCOUNT_RATE_LIMIT_CAPACITY = 8;
+	private static final int ACCOUNT_RATE_LIMIT_INTERVAL_MILLIS = 500;
+	private static final int JOIN_THREADS = 8;
 
 	private String openIdProvider;
 
+	private ChatEndpoints endpoints;
 	private HttpClient httpClient;
-	private Map<String, String> cookies = new HashMap<>();
+	private boolean ownsHttpClient;
+	private MetricsRegistry metricsRegistry = MetricsRegistry.NOOP;
+	private Tracer tracer = Tracer.DISABLED;
+	private Map<String, String> cookies = new ConcurrentHashMap<>();
 
 	private List<Room> rooms = new ArrayList<>();
+	private Map<ChatHost, Set<Integer>> reservedRoomIds = new EnumMap<>(ChatHost.class);
+	private Map<ChatHost, CompletableFuture<Map<String, String>>> logins = new EnumMap<>(ChatHost.class);
+	private Map<ChatHost, UserCache> userCaches = new EnumMap<>(ChatHost.class);
+	private Map<ChatHost, RateLimiter> rateLimiters = new EnumMap<>(ChatHost.class);
+	private Map<ChatHost, ChatWebSocket> webSockets = new EnumMap<>(ChatHost.class);
 
 	/**
 	 * Constructs the client with the provided credentials. Those will be the credentials used to send messages.
@@ -39,7 +66,34 @@ public class StackExchangeClient implements AutoCloseable {
 	 * @param password Password of the account to connect with.
 	 */
 	public StackExchangeClient(String email, String password) {
-		httpClient = new HttpClient();
+		this(email, password, new PooledHttpClient());
+		ownsHttpClient = true;
+	}
+
+	/**
+	 * Constructs the client with the provided credentials, sending all its HTTP requests with the given HTTP client. This can be used
+	 * to configure the timeouts and the size of the pool of connections to each chat host, with a {@link PooledHttpClient}.
+	 * <p>The given HTTP client is not closed when this client is closed.
+	 * @param email Email of the account to connect with.
+	 * @param password Password of the account to connect with.
+	 * @param httpClient HTTP client to use.
+	 */
+	public StackExchangeClient(String email, String password, HttpClient httpClient) {
+		this(email, password, httpClient, ChatEndpoints.DEFAULT);
+	}
+
+	/**
+	 * Constructs the client with the provided credentials, sending all its HTTP requests with the given HTTP client to the given
+	 * endpoints. This can be used to target a local server instead of the Stack Exchange network.
+	 * <p>The given HTTP client is not closed when this client is closed.
+	 * @param email Email of the account to connect with.
+	 * @param password Password of the account to connect with.
+	 * @param httpClient HTTP client to use.
+	 * @param endpoints Endpoints of the servers to connect to.
+	 */
+	public StackExchangeClient(String email, String password, HttpClient httpClient, ChatEndpoints endpoints) {
+		this.httpClient = httpClient;
+		this.endpoints = endpoints;
 		try {
 			SEOpenIdLogin(email, password);
 		} catch (IOException e) {
@@ -48,15 +102,16 @@ public class StackExchangeClient implements AutoCloseable {
 	}
 
 	private void SEOpenIdLogin(String email, String password) throws IOException {
-		Response response = httpClient.get("https://openid.stackexchange.com/account/login", cookies);
+		String openIdUrl = endpoints.getOpenIdUrl();
+		HttpResponse response = httpClient.get(openIdUrl + "/account/login", cookies);
 		String fkey = response.parse().select("input[name='fkey']").val();
-		response = httpClient.post("https://openid.stackexchange.com/account/login/submit", cookies, "email", email, "password", password, "fkey", fkey);
+		response = httpClient.post(openIdUrl + "/account/login/submit", cookies, "email", email, "password", password, "fkey", fkey);
 		Document document = response.parse();
 		if (document.getElementsByClass("error").size() > 0) {
 			LOGGER.debug(document.html());
 			throw new ChatOperationException("Invalid OpenID credentials");
 		}
-		Matcher matcher = OPEN_ID_PROVIDER_PATTERN.matcher(document.getElementById("delegate").html());
+		Matcher matcher = Pattern.compile("(" + Pattern.quote(openIdUrl) + "/user/.*?)\"").matcher(document.getElementById("delegate").html());
 		if (!matcher.find()) {
 			LOGGER.debug(document.html());
 			throw new IllegalStateException("Cannot retrieve the OpenID provider");
@@ -72,48 +127,203 @@ public class StackExchangeClient implements AutoCloseable {
 	 * @return <code>Room</code> joined.
 	 */
 	public Room joinRoom(ChatHost host, int roomId) {
-		if (rooms.stream().anyMatch(r -> r.getHost().equals(host) && r.getRoomId() == roomId)) {
-			throw new ChatOperationException("Cannot join a room you are already in.");
+		reserveRooms(Collections.singletonMap(host, Collections.singletonList(roomId)));
+		try {
+			Map<String, String> hostCookies;
+			try {
+				hostCookies = login(host, Runnable::run).join();
+			} catch (CompletionException e) {
+				throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+			}
+			return newRoom(host, roomId, hostCookies);
+		} catch (RuntimeException e) {
+			releaseRoom(host, roomId);
+			throw e;
+		}
+	}
+
+	/**
+	 * Joins asynchronously the given rooms of the given chat host.
+	 * @param host Host of the chat rooms to join.
+	 * @param roomIds Ids of the rooms to join.
+	 * @return A future holding the rooms joined, in the order of the given ids.
+	 * @see #joinRooms(Map)
+	 */
+	public CompletionStage<List<Room>> joinRooms(ChatHost host, int... roomIds) {
+		return joinRooms(Collections.singletonMap(host, IntStream.of(roomIds).boxed().collect(Collectors.toList())));
+	}
+
+	/**
+	 * Joins asynchronously the given rooms, for each chat host.
+	 * <p>Contrary to successive calls to {@link #joinRoom(ChatHost, int)}, the logged-in user logs in to each chat host in parallel, and
+	 * the rooms are joined concurrently as soon as the login to their host is done.
+	 * <p>Trying to join a room in which you are already in, or to join the same room twice, results in a <code>ChatOperationException</code>.
+	 * If a room cannot be joined, the returned future completes exceptionally; the rooms that could be joined stay joined, and are left
+	 * when this client is closed.
+	 * @param roomIds Ids of the rooms to join, for each chat host.
+	 * @return A future holding the rooms joined, in the iteration order of the given map and collections.
+	 */
+	public CompletionStage<List<Room>> joinRooms(Map<ChatHost, ? extends Collection<Integer>> roomIds) {
+		int roomCount = reserveRooms(roomIds);
+		if (roomCount == 0) return CompletableFuture.completedFuture(new ArrayList<>());
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(JOIN_THREADS, roomCount));
+		List<CompletableFuture<Room>> joinedRooms = new ArrayList<>(roomCount);
+		for (Map.Entry<ChatHost, ? extends Collection<Integer>> entry : roomIds.entrySet()) {
+			ChatHost host = entry.getKey();
+			if (entry.getValue().isEmpty()) continue;
+			CompletableFuture<Map<String, String>> login = login(host, executor);
+			for (int roomId : entry.getValue()) {
+				joinedRooms.add(login.thenApplyAsync(hostCookies -> newRoom(host, roomId, hostCookies), executor).whenComplete((room, t) -> {
+					if (t != null) releaseRoom(host, roomId);
+				}));
+			}
+		}
+		CompletableFuture<List<Room>> result = CompletableFuture.allOf(joinedRooms.toArray(new CompletableFuture<?>[0])).thenApply(v -> joinedRooms.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+		result.whenComplete((r, t) -> executor.shutdown());
+		return result;
+	}
+
+	/**
+	 * Reserves the given rooms before joining them, so that concurrent calls cannot join the same room twice. The reservation of a room is
+	 * kept once it is joined, and released if it cannot be joined.
+	 * @return Number of rooms reserved.
+	 */
+	private synchronized int reserveRooms(Map<ChatHost, ? extends Collection<Integer>> roomIds) {
+		int roomCount = 0;
+		for (Map.Entry<ChatHost, ? extends Collection<Integer>> entry : roomIds.entrySet()) {
+			Set<Integer> reserved = reservedRoomIds.getOrDefault(entry.getKey(), Collections.emptySet());
+			if (entry.getValue().stream().distinct().count() != entry.getValue().size() || entry.getValue().stream().anyMatch(reserved::contains)) {
+				throw new ChatOperationException("Cannot join a room you are already in.");
+			}
+			roomCount += entry.getValue().size();
 		}
-		if (rooms.stream().allMatch(r -> !r.getHost().equals(host))) {
+		roomIds.forEach((host, ids) -> reservedRoomIds.computeIfAbsent(host, h -> new HashSet<>()).addAll(ids));
+		return roomCount;
+	}
+
+	private synchronized void releaseRoom(ChatHost host, int roomId) {
+		reservedRoomIds.get(host).remove(roomId);
+	}
+
+	/**
+	 * Logs in to the given chat host, once: the calls made while the login is in progress share it, and a failed login is attempted again
+	 * by the next call. Each host logs in with its own copy of the cookies, so that the concurrent logins don't overwrite each other's.
+	 * @param executor Executor running the login, if it isn't already done or in progress.
+	 * @return A future holding the cookies of the chat host.
+	 */
+	private CompletableFuture<Map<String, String>> login(ChatHost host, Executor executor) {
+		CompletableFuture<Map<String, String>> login;
+		synchronized (this) {
+			login = logins.get(host);
+			if (login != null) return login;
+			login = new CompletableFuture<>();
+			logins.put(host, login);
+		}
+		CompletableFuture<Map<String, String>> pendingLogin = login;
+		executor.execute(() -> {
+			Map<String, String> hostCookies = new ConcurrentHashMap<>(cookies);
 			try {
-				siteLogin(host.getName());
-			} catch (IOException e) {
-				throw new UncheckedIOException(e);
+				siteLogin(host, hostCookies);
+			} catch (IOException | RuntimeException e) {
+				synchronized (this) {
+					logins.remove(host, pendingLogin);
+				}
+				pendingLogin.completeExceptionally(e instanceof IOException ? new UncheckedIOException((IOException) e) : e);
+				return;
 			}
+			cookies.putAll(hostCookies);
+			pendingLogin.complete(hostCookies);
+		});
+		return login;
+	}
+
+	private Room newRoom(ChatHost host, int roomId, Map<String, String> cookies) {
+		Room chatRoom = new Room(host, endpoints.getChatUrl(host), roomId, httpClient, cookies, userCache(host), accountRateLimiter(host), webSocket(host), metricsRegistry, tracer);
+		synchronized (this) {
+			rooms.add(chatRoom);
 		}
-		Room chatRoom = new Room(host, roomId, httpClient, cookies);
-		rooms.add(chatRoom);
 		return chatRoom;
 	}
 
-	private void siteLogin(String host) throws IOException {
-		Response response = httpClient.get("https://" + host + "/users/login?returnurl=" + URLEncoder.encode("https://" + host + "/", "UTF-8"), cookies);
+	private synchronized RateLimiter accountRateLimiter(ChatHost host) {
+		return rateLimiters.computeIfAbsent(host, h -> new RateLimiter(ACCOUNT_RATE_LIMIT_CAPACITY, ACCOUNT_RATE_LIMIT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+	}
+
+	private synchronized ChatWebSocket webSocket(ChatHost host) {
+		return webSockets.computeIfAbsent(host, h -> new ChatWebSocket(h, endpoints.getChatUrl(h), metricsRegistry, tracer));
+	}
+
+	/**
+	 * Sets the registry recording the metrics of the rooms joined afterwards, and of their connections to the chat server. By default,
+	 * no metrics are recorded.
+	 * <p>The WebSocket connection to a chat host is shared by all the rooms joined on that host: it keeps the registry that was set when
+	 * the first room on that host was joined.
+	 * @param metricsRegistry Registry of the metrics.
+	 * @see MetricsRegistry
+	 */
+	public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		this.metricsRegistry = Objects.requireNonNull(metricsRegistry, "metricsRegistry");
+	}
+
+	/**
+	 * Traces the path of the chat events received in the rooms joined afterwards, from the reception of their WebSocket frame to the end
+	 * of their listeners, exporting the spans to the given sink. By default, nothing is traced.
+	 * <p>Frames are sampled with the given probability: all the spans of a sampled frame are exported, and nothing is traced for the other
+	 * frames. As with the metrics, the WebSocket connection to a chat host keeps the tracing that was set when the first room on that host
+	 * was joined.
+	 * @param sink Sink to export the spans to.
+	 * @param samplingRatio Probability, between 0 and 1, that a frame is traced.
+	 * @see TraceSpan
+	 */
+	public void setTracing(TraceSink sink, double samplingRatio) {
+		if (!(samplingRatio >= 0 && samplingRatio <= 1)) {
+			throw new IllegalArgumentException("The sampling ratio must be between 0 and 1, was " + samplingRatio);
+		}
+		tracer = new Tracer(Objects.requireNonNull(sink, "sink"), samplingRatio);
+	}
+
+	private synchronized UserCache userCache(ChatHost host) {
+		return userCaches.computeIfAbsent(host, h -> new UserCache(USER_CACHE_MAXIMUM_SIZE, USER_CACHE_EXPIRATION_MINUTES, TimeUnit.MINUTES));
+	}
+
+	/**
+	 * Returns the statistics of the cache of users for the given chat host. Users are cached for a few minutes, and shared by all
+	 * the rooms joined on the same host.
+	 * @param host Chat host.
+	 * @return Statistics of the cache of users.
+	 */
+	public CacheStatistics getUserCacheStatistics(ChatHost host) {
+		return userCache(host).statistics();
+	}
+
+	private void siteLogin(ChatHost host, Map<String, String> cookies) throws IOException {
+		String siteUrl = endpoints.getSiteUrl(host);
+		HttpResponse response = httpClient.get(siteUrl + "/users/login?returnurl=" + URLEncoder.encode(siteUrl + "/", "UTF-8"), cookies);
 		String fkey = response.parse().select("input[name='fkey']").val();
-		response = httpClient.post("https://" + host + "/users/authenticate", cookies, "fkey", fkey, "openid_identifier", openIdProvider);
+		response = httpClient.post(siteUrl + "/users/authenticate", cookies, "fkey", fkey, "openid_identifier", openIdProvider);
 		Document document = response.parse();
 
 		// confirmation prompt?
-		if (response.url().toString().startsWith("https://openid.stackexchange.com/account/prompt")) {
+		if (response.url().toString().startsWith(endpoints.getOpenIdUrl() + "/account/prompt")) {
 			LOGGER.trace("Confirmation prompt \n" + document.html());
 			String session = document.select("input[name='session']").first().val();
 			fkey = document.select("input[name='fkey']").first().val();
-			Response promptResponse = httpClient.post("https://openid.stackexchange.com/account/prompt/submit", cookies, "session", session, "fkey", fkey);
+			HttpResponse promptResponse = httpClient.post(endpoints.getOpenIdUrl() + "/account/prompt/submit", cookies, "session", session, "fkey", fkey);
 			document = promptResponse.parse();
 			LOGGER.trace("Confirmation prompt response \n" + document.html());
 		}
 
 		// when the account doesn't exist on this site, confirm its creation
 		if (!document.select("form[action='/users/openidconfirm']").isEmpty()) {
-			LOGGER.debug("Account doesn't exist on target site '{}', confirming new account", host);
+			LOGGER.debug("Account doesn't exist on target site '{}', confirming new account", siteUrl);
 			String session = document.select("input[name='s']").first().val();
 			fkey = document.select("input[name='fkey']").first().val();
-			Response newAccountResponse = httpClient.post("https://" + host + "/users/openidconfirm", cookies, "s", session, "fkey", fkey);
+			HttpResponse newAccountResponse = httpClient.post(siteUrl + "/users/openidconfirm", cookies, "s", session, "fkey", fkey);
 			LOGGER.trace("New account confirmation response \n" + newAccountResponse.parse().html());
 		}
 
 		// check logged in
-		Response checkResponse = httpClient.get("https://" + host + "/users/current", cookies);
+		HttpResponse checkResponse = httpClient.get(siteUrl + "/users/current", cookies);
 		if (checkResponse.parse().getElementsByClass("js-inbox-button").first() == null) {
 			LOGGER.debug(response.parse().html());
 			throw new IllegalStateException("Unable to login to Stack Exchange.");
@@ -126,7 +336,17 @@ public class StackExchangeClient implements AutoCloseable {
 	 */
 	@Override
 	public void close() {
-		rooms.forEach(Room::leave);
+		List<Room> joinedRooms;
+		synchronized (this) {
+			joinedRooms = new ArrayList<>(rooms);
+		}
+		joinedRooms.forEach(Room::leave);
+		synchronized (this) {
+			webSockets.values().forEach(ChatWebSocket::close);
+		}
+		if (ownsHttpClient) {
+			httpClient.close();
+		}
 	}
 
 }
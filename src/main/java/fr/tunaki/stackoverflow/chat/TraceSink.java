@@ -0,0 +1,20 @@
+package fr.tunaki.stackoverflow.chat;
+
+/**
+ * Destination of the spans traced by a {@link StackExchangeClient}, set with
+ * {@link StackExchangeClient#setTracing(TraceSink, double)}. It can be implemented on top of a tracing library, for example by
+ * converting each span to an OpenTelemetry <code>SpanData</code> and handing it to a <code>SpanExporter</code>.
+ * <p>Spans are exported from the threads that end them, which include the WebSocket thread and the threads running the listeners:
+ * implementations are expected to be thread-safe and not to block.
+ * @author Tunaki
+ */
+@FunctionalInterface
+public interface TraceSink {
+
+	/**
+	 * Exports the given span, which has ended.
+	 * @param span Span to export.
+	 */
+	void export(TraceSpan span);
+
+}
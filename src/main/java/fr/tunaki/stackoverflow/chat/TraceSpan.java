@@ -0,0 +1,96 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Span traced on the path of a chat event, from the reception of the WebSocket frame holding it to the end of the listeners handling
+ * it. The spans of a frame share the same trace id; identifiers are hexadecimal, of 32 characters for the trace and 16 characters for
+ * the spans, as in OpenTelemetry.
+ * <p>The spans are:
+ * <ul>
+ * <li><code>chat.frame</code>: root span, from the reception of a frame to the end of the dispatch of its events to the listener
+ * queues.</li>
+ * <li><code>chat.events.create</code>: creation of the events of a room from the frame.</li>
+ * <li><code>chat.listener.queue</code>: time an event waited in the queue of a listener, until a thread of the room delivered it.</li>
+ * <li><code>chat.listener</code>: execution of a listener.</li>
+ * <li><code>chat.message.fetch</code> and <code>chat.user.fetch</code>: retrieval of a message or a user during the execution of a
+ * listener, for example by <code>Event.getUser()</code>, children of the <code>chat.listener</code> span.</li>
+ * </ul>
+ * <p>The <code>chat.listener.queue</code> and <code>chat.listener</code> spans have a <code>chat.event.lag_ms</code> attribute: the time
+ * elapsed between the raising of the event by the chat server, as given by its timestamp, and the end of the span.
+ * @author Tunaki
+ */
+public final class TraceSpan {
+
+	private final String traceId, spanId, parentSpanId, name;
+	private final long startEpochNanos, endEpochNanos;
+	private final Map<String, Object> attributes;
+
+	TraceSpan(String traceId, String spanId, String parentSpanId, String name, long startEpochNanos, long endEpochNanos, Map<String, Object> attributes) {
+		this.traceId = traceId;
+		this.spanId = spanId;
+		this.parentSpanId = parentSpanId;
+		this.name = name;
+		this.startEpochNanos = startEpochNanos;
+		this.endEpochNanos = endEpochNanos;
+		this.attributes = Collections.unmodifiableMap(attributes);
+	}
+
+	/**
+	 * @return Id of the trace of this span.
+	 */
+	public String getTraceId() {
+		return traceId;
+	}
+
+	/**
+	 * @return Id of this span.
+	 */
+	public String getSpanId() {
+		return spanId;
+	}
+
+	/**
+	 * @return Id of the parent of this span, or <code>null</code> if this is the root span of the trace.
+	 */
+	public String getParentSpanId() {
+		return parentSpanId;
+	}
+
+	/**
+	 * @return Name of this span.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return Start of this span, in nanoseconds since the epoch.
+	 */
+	public long getStartEpochNanos() {
+		return startEpochNanos;
+	}
+
+	/**
+	 * @return End of this span, in nanoseconds since the epoch.
+	 */
+	public long getEndEpochNanos() {
+		return endEpochNanos;
+	}
+
+	/**
+	 * Returns the attributes of this span, such as the id of the room (<code>room</code>) or the type of the event (<code>event.type</code>).
+	 * Values are strings, longs or booleans.
+	 * @return Unmodifiable map of the attributes.
+	 */
+	public Map<String, Object> getAttributes() {
+		return attributes;
+	}
+
+	@Override
+	public String toString() {
+		return "TraceSpan[name=" + name + ", traceId=" + traceId + ", spanId=" + spanId + ", parentSpanId=" + parentSpanId + ", durationNanos=" + (endEpochNanos - startEpochNanos) + ", attributes=" + attributes + "]";
+	}
+
+}
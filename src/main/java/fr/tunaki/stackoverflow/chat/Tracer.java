@@ -0,0 +1,147 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Traces the path of chat events, exporting the spans to a {@link TraceSink}.
+ * <p>Traces are sampled when a frame is received: the spans of a frame are all traced, or none is. Nothing is allocated for the frames
+ * that aren't sampled, nor when tracing is disabled; the span of the listener running on a thread is held in a thread local, so that the
+ * fetches it makes are traced as its children.
+ * @author Tunaki
+ */
+final class Tracer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Tracer.class);
+
+	/**
+	 * Tracer tracing nothing.
+	 */
+	static final Tracer DISABLED = new Tracer(null, 0);
+
+	private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+
+	private final TraceSink sink;
+	private final double samplingRatio;
+	private final long epochOffsetNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+
+	Tracer(TraceSink sink, double samplingRatio) {
+		this.sink = sink;
+		this.samplingRatio = samplingRatio;
+	}
+
+	/**
+	 * Starts the root span of a new trace, if it is sampled.
+	 * @param name Name of the span.
+	 * @return The started span, or <code>null</code> if the trace isn't sampled.
+	 */
+	Span startTrace(String name) {
+		if (sink == null || ThreadLocalRandom.current().nextDouble() >= samplingRatio) return null;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return new Span(String.format("%016x%016x", random.nextLong(), random.nextLong()), null, name);
+	}
+
+	/**
+	 * Starts a child of the span current on this thread, if there is one.
+	 * @param name Name of the span.
+	 * @return The started span, or <code>null</code> if no span is current.
+	 */
+	Span startChildOfCurrent(String name) {
+		if (sink == null) return null;
+		Span current = CURRENT.get();
+		return current == null ? null : current.child(name);
+	}
+
+	private void export(TraceSpan span) {
+		try {
+			sink.export(span);
+		} catch (RuntimeException e) {
+			LOGGER.warn("Cannot export span {}", span, e);
+		}
+	}
+
+	/**
+	 * Span being traced. A span is used by one thread at a time, and ended once.
+	 */
+	final class Span {
+
+		private final String traceId, spanId, parentSpanId, name;
+		private final long startNanos = System.nanoTime();
+		private final Map<String, Object> attributes = new LinkedHashMap<>();
+		private long originEpochMillis = -1;
+
+		private Span(String traceId, String parentSpanId, String name) {
+			this.traceId = traceId;
+			this.spanId = String.format("%016x", ThreadLocalRandom.current().nextLong());
+			this.parentSpanId = parentSpanId;
+			this.name = name;
+		}
+
+		/**
+		 * Starts a child of this span.
+		 */
+		Span child(String name) {
+			return new Span(traceId, spanId, name);
+		}
+
+		/**
+		 * Starts a span following this one: a span with the same parent, attributes and origin.
+		 */
+		Span follow(String name) {
+			Span span = new Span(traceId, parentSpanId, name);
+			span.attributes.putAll(attributes);
+			span.originEpochMillis = originEpochMillis;
+			return span;
+		}
+
+		Span attribute(String key, Object value) {
+			attributes.put(key, value);
+			return this;
+		}
+
+		/**
+		 * Sets the instant the traced event was raised by the chat server, from which the lag is computed when this span ends.
+		 */
+		Span origin(Instant instant) {
+			originEpochMillis = instant.toEpochMilli();
+			return this;
+		}
+
+		/**
+		 * Makes this span the current span of this thread.
+		 * @return The span that was current, to restore with {@link Tracer#restore(Span)}.
+		 */
+		Span makeCurrent() {
+			Span previous = CURRENT.get();
+			CURRENT.set(this);
+			return previous;
+		}
+
+		void end() {
+			long endEpochNanos = epochOffsetNanos + System.nanoTime();
+			if (originEpochMillis >= 0) {
+				attributes.put("chat.event.lag_ms", TimeUnit.NANOSECONDS.toMillis(endEpochNanos) - originEpochMillis);
+			}
+			export(new TraceSpan(traceId, spanId, parentSpanId, name, epochOffsetNanos + startNanos, endEpochNanos, attributes));
+		}
+
+	}
+
+	/**
+	 * Restores the span that was current on this thread before {@link Span#makeCurrent()}.
+	 */
+	static void restore(Span previous) {
+		if (previous == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(previous);
+		}
+	}
+
+}
@@ -1,6 +1,9 @@
 package fr.tunaki.stackoverflow.chat;
 
 import java.time.Instant;
+import java.util.function.LongPredicate;
+
+import com.google.gson.JsonObject;
 
 /**
  * This class represents a chat user. Users having a negative id are system users (like Feeds).
@@ -33,6 +36,25 @@ public final class User {
 		this.profileLink = profileLink;
 	}
 
+	/**
+	 * Builds the user from the data returned by the chat server for a room.
+	 * @param object Data of the user.
+	 * @param hostUrlBase Base URL of the chat server.
+	 * @param inRoom Predicate telling whether the user with a given id is currently in the room.
+	 * @return User.
+	 */
+	static User fromJson(JsonObject object, String hostUrlBase, LongPredicate inRoom) {
+		long id = object.get("id").getAsLong();
+		String userName = object.get("name").getAsString();
+		int reputation = object.get("reputation").getAsInt();
+		boolean moderator = object.get("is_moderator").isJsonNull() ? false : object.get("is_moderator").getAsBoolean();
+		boolean owner = object.get("is_owner").isJsonNull() ? false : object.get("is_owner").getAsBoolean();
+		Instant lastSeen = object.get("last_seen").isJsonNull() ? null : Instant.ofEpochSecond(object.get("last_seen").getAsLong());
+		Instant lastMessage = object.get("last_post").isJsonNull() ? null : Instant.ofEpochSecond(object.get("last_post").getAsLong());
+		String profileLink = hostUrlBase + "/users/" + id;
+		return new User(id, userName, reputation, moderator, owner, lastSeen, lastMessage, inRoom.test(id), profileLink);
+	}
+
 	/**
 	 * Returns the id of this user. This can be negative in case of system users.
 	 * @return Id of this user.
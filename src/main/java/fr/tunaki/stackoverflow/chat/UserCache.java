@@ -0,0 +1,58 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Cache of the raw user information returned by the chat server, shared by all the rooms of a given chat host.
+ * <p>The information of a user depends on the room it was retrieved with (e.g. whether they are a room owner, or the last time
+ * they posted in it), so entries are keyed by both the id of the room and the id of the user.
+ * @author Tunaki
+ */
+final class UserCache {
+
+	private final Cache<Key, JsonObject> cache;
+
+	UserCache(int maximumSize, long expireAfterWrite, TimeUnit unit) {
+		cache = new Cache<>(maximumSize, expireAfterWrite, unit);
+	}
+
+	JsonObject get(int roomId, long userId) {
+		return cache.get(new Key(roomId, userId));
+	}
+
+	void put(int roomId, long userId, JsonObject user) {
+		cache.put(new Key(roomId, userId), user);
+	}
+
+	CacheStatistics statistics() {
+		return cache.statistics();
+	}
+
+	private static final class Key {
+
+		private final int roomId;
+		private final long userId;
+
+		Key(int roomId, long userId) {
+			this.roomId = roomId;
+			this.userId = userId;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return roomId == other.roomId && userId == other.userId;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * roomId + Long.hashCode(userId);
+		}
+
+	}
+
+}
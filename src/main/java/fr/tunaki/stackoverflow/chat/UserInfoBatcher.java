@@ -0,0 +1,92 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Coalesces the lookups of user information made within a short window of time into a single request.
+ * <p>The <code>/user/info</code> endpoint accepts a comma-separated list of ids: all the ids requested while a batch is pending are
+ * fetched together once the window elapses. Requesting an id that is already part of the pending batch returns the same future.
+ * @author Tunaki
+ */
+final class UserInfoBatcher {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(UserInfoBatcher.class);
+
+	private final Function<String, CompletableFuture<JsonArray>> fetcher;
+	private final ScheduledExecutorService scheduler;
+	private final long windowMillis;
+
+	private Map<Long, CompletableFuture<JsonObject>> pending = new HashMap<>();
+
+	/**
+	 * @param fetcher Function fetching asynchronously the users for the given comma-separated list of ids.
+	 * @param scheduler Executor on which the batches are started.
+	 * @param windowMillis Time, in milliseconds, to wait for other lookups before fetching a batch.
+	 */
+	UserInfoBatcher(Function<String, CompletableFuture<JsonArray>> fetcher, ScheduledExecutorService scheduler, long windowMillis) {
+		this.fetcher = fetcher;
+		this.scheduler = scheduler;
+		this.windowMillis = windowMillis;
+	}
+
+	/**
+	 * Looks up the raw information of the given user.
+	 * @param userId Id of the user.
+	 * @return A future holding the information of the user, or <code>null</code> if the chat server didn't return it.
+	 */
+	synchronized CompletableFuture<JsonObject> load(long userId) {
+		CompletableFuture<JsonObject> future = pending.get(userId);
+		if (future == null) {
+			if (pending.isEmpty()) {
+				scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+			}
+			future = new CompletableFuture<>();
+			pending.put(userId, future);
+		}
+		return future;
+	}
+
+	private void flush() {
+		Map<Long, CompletableFuture<JsonObject>> batch;
+		synchronized (this) {
+			batch = pending;
+			pending = new HashMap<>();
+		}
+		String ids = batch.keySet().stream().map(Object::toString).collect(Collectors.joining(","));
+		LOGGER.trace("Fetching user information for ids {}", ids);
+		CompletableFuture<JsonArray> users;
+		try {
+			users = fetcher.apply(ids);
+		} catch (RuntimeException e) {
+			batch.values().forEach(f -> f.completeExceptionally(e));
+			return;
+		}
+		users.whenComplete((array, thr) -> {
+			if (thr != null) {
+				batch.values().forEach(f -> f.completeExceptionally(thr instanceof CompletionException ? thr.getCause() : thr));
+				return;
+			}
+			for (JsonElement element : array) {
+				JsonObject user = element.getAsJsonObject();
+				CompletableFuture<JsonObject> future = batch.get(user.get("id").getAsLong());
+				if (future != null) future.complete(user);
+			}
+			batch.values().forEach(f -> f.complete(null));
+		});
+	}
+
+}
@@ -0,0 +1,41 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents the event where the access level of a user to the chat room was changed, for example when they are
+ * granted write access, or made room owner.
+ * @author Tunaki
+ */
+public class AccessLevelChangedEvent extends Event {
+
+	private long targetUserId;
+	private String content;
+
+	AccessLevelChangedEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+		JsonObject jsonObject = jsonElement.getAsJsonObject();
+		targetUserId = orDefault(jsonObject.get("target_user_id"), 0, JsonElement::getAsLong);
+		content = orDefault(jsonObject.get("content"), null, JsonElement::getAsString);
+	}
+
+	/**
+	 * Returns the id of the user whose access level was changed.
+	 * @return Id of the user whose access level was changed.
+	 */
+	public long getTargetUserId() {
+		return targetUserId;
+	}
+
+	/**
+	 * Returns the content of this event, which describes the new access level, as sent by the chat server.
+	 * @return Content of this event.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+}
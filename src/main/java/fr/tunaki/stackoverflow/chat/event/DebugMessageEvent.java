@@ -0,0 +1,30 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents a debug message sent by the chat server.
+ * @author Tunaki
+ */
+public class DebugMessageEvent extends Event {
+
+	private String content;
+
+	DebugMessageEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+		JsonObject jsonObject = jsonElement.getAsJsonObject();
+		content = orDefault(jsonObject.get("content"), null, JsonElement::getAsString);
+	}
+
+	/**
+	 * Returns the content of the debug message.
+	 * @return Content of the debug message.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+}
@@ -2,6 +2,9 @@ package fr.tunaki.stackoverflow.chat.event;
 
 import java.time.Instant;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.function.Function;
 import java.util.function.ToIntFunction;
 import java.util.function.ToLongFunction;
@@ -20,6 +23,8 @@ import fr.tunaki.stackoverflow.chat.User;
  * <p>All events have a instant at which they occured, represented by an {@link Instant} object (UTC). They also have the user that
  * triggered the action (ID and display name), with the exception of anonymous events (like starring).
  * For system events, the ID will be strictly negative and for anonymous events, it is will be 0.
+ * <p>Events only hold the raw data sent by the chat server: the full {@link User} that raised an event is only fetched the first
+ * time it is requested, through {@link #getUser()} or {@link #getUserAsync()}.
  * @author Tunaki
  */
 public abstract class Event {
@@ -28,15 +33,24 @@ public abstract class Event {
 	private long userId;
 	private String userName;
 	private Room room;
-	private User user;
+	private EventType<Object> type;
+	private CompletableFuture<Optional<User>> user;
 
 	Event(JsonElement jsonElement, Room room) {
 		JsonObject jsonObject = jsonElement.getAsJsonObject();
-		instant = Instant.ofEpochSecond(jsonObject.get("time_stamp").getAsLong());
+		instant = Instant.ofEpochSecond(orDefault(jsonObject.get("time_stamp"), 0, JsonElement::getAsLong));
 		userId = orDefault(jsonObject.get("user_id"), 0, JsonElement::getAsLong);
 		userName = orDefault(jsonObject.get("user_name"), null, JsonElement::getAsString);
-		user = userId > 0 ? room.getUser(userId) : null;
 		this.room = room;
+		type = EventType.fromEvent(this);
+	}
+
+	/**
+	 * Returns the type of this event, i.e. the constant of {@link EventType} under which listeners for this event are registered.
+	 * @return Type of this event.
+	 */
+	public EventType<Object> getType() {
+		return type;
 	}
 
 	/**
@@ -48,14 +62,28 @@ public abstract class Event {
 	}
 
 	/**
-	 * Returns the user that raised this event, at the time the event was raised.
-	 * <p>The returned user will not be updated with regards to, e.g, reputation changes that were made after this event.
+	 * Returns the user that raised this event, as retrieved the first time it was requested.
+	 * <p>The returned user will not be updated with regards to, e.g, reputation changes that were made after it was retrieved.
 	 * If an updated user is needed, refer to {@link Room#getUser(long)}.
 	 * <p>For events where there was no registered user, or system generated event, this returns an empty <code>Optional</code>.
+	 * <p>The user is fetched the first time this method, or {@link #getUserAsync()}, is called; this call blocks until it is retrieved.
 	 * @return User that raised this event.
 	 */
 	public Optional<User> getUser() {
-		return Optional.ofNullable(user);
+		return join(getUserAsync());
+	}
+
+	/**
+	 * Retrieves asynchronously the user that raised this event, as retrieved the first time it was requested.
+	 * <p>The user is only fetched once, on the first call to this method or to {@link #getUser()}. For events where there was no
+	 * registered user, or system generated event, the returned stage holds an empty <code>Optional</code>.
+	 * @return A future holding the user that raised this event.
+	 */
+	public synchronized CompletionStage<Optional<User>> getUserAsync() {
+		if (user == null) {
+			user = userId > 0 ? room.getUserAsync(userId).thenApply(Optional::of).toCompletableFuture() : CompletableFuture.completedFuture(Optional.empty());
+		}
+		return user;
 	}
 
 	/**
@@ -94,6 +122,17 @@ public abstract class Event {
 		return room.getRoomId();
 	}
 
+	static <T> T join(CompletionStage<T> stage) {
+		try {
+			return stage.toCompletableFuture().join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
 	protected <T> T orDefault(JsonElement element, T defaultValue, Function<JsonElement, T> function) {
 		return element == null ? defaultValue : function.apply(element);
 	}
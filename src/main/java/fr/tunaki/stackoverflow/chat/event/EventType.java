@@ -1,6 +1,7 @@
 package fr.tunaki.stackoverflow.chat.event;
 
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -13,6 +14,7 @@ import java.util.Map;
 public final class EventType<T> {
 
 	private static final Map<Class<Object>, EventType<Object>> LOOKUP = new HashMap<>();
+	private static int count;
 
 	/**
 	 * Event raised when a message is posted in a room.
@@ -58,6 +60,13 @@ public final class EventType<T> {
 	 */
 	public static final EventType<UserLeftEvent> USER_LEFT = new EventType<>(UserLeftEvent.class);
 
+	/**
+	 * Event raised when a user starts or stops being present in the chat room. Contrary to {@link #USER_ENTERED} and {@link #USER_LEFT},
+	 * this event is also raised for the users that entered or left the room while the connection to the chat server was lost, once the
+	 * users present in the room are synchronized again.
+	 */
+	public static final EventType<UserPresenceChangedEvent> USER_PRESENCE_CHANGED = new EventType<>(UserPresenceChangedEvent.class);
+
 	/**
 	 * Event raised when a message is starred, unstarred, pinned or unpinned.
 	 */
@@ -73,13 +82,146 @@ public final class EventType<T> {
 	 */
 	public static final EventType<KickedEvent> KICKED = new EventType<>(KickedEvent.class);
 
+	/**
+	 * Event raised when a message is posted in a room by a feed. Feeds are system users, having a strictly negative id.
+	 * <p>Those messages do not raise {@link #MESSAGE_POSTED}.
+	 */
+	public static final EventType<FeedMessagePostedEvent> FEED_MESSAGE_POSTED = new EventType<>(FeedMessagePostedEvent.class);
+
+	/**
+	 * Event raised when the name or the description of the room is changed.
+	 */
+	public static final EventType<RoomNameChangedEvent> ROOM_NAME_CHANGED = new EventType<>(RoomNameChangedEvent.class);
+
+	/**
+	 * Event raised when the chat server sends a debug message.
+	 */
+	public static final EventType<DebugMessageEvent> DEBUG_MESSAGE = new EventType<>(DebugMessageEvent.class);
+
+	/**
+	 * Event raised when a message is flagged.
+	 */
+	public static final EventType<MessageFlaggedEvent> MESSAGE_FLAGGED = new EventType<>(MessageFlaggedEvent.class);
+
+	/**
+	 * Event raised when a file is added to the room.
+	 */
+	public static final EventType<FileAddedEvent> FILE_ADDED = new EventType<>(FileAddedEvent.class);
+
+	/**
+	 * Event raised when a moderator flag is raised. Only moderators receive this event.
+	 */
+	public static final EventType<ModeratorFlagEvent> MODERATOR_FLAG = new EventType<>(ModeratorFlagEvent.class);
+
+	/**
+	 * Event raised when the current logged-in user changes their chat settings.
+	 */
+	public static final EventType<UserSettingsChangedEvent> USER_SETTINGS_CHANGED = new EventType<>(UserSettingsChangedEvent.class);
+
+	/**
+	 * Event raised when the chat server sends a notification to all the users.
+	 */
+	public static final EventType<GlobalNotificationEvent> GLOBAL_NOTIFICATION = new EventType<>(GlobalNotificationEvent.class);
+
+	/**
+	 * Event raised when the access level of a user to the room is changed.
+	 * <p>When a user is kicked, a single {@link #KICKED} event is raised instead.
+	 */
+	public static final EventType<AccessLevelChangedEvent> ACCESS_LEVEL_CHANGED = new EventType<>(AccessLevelChangedEvent.class);
+
+	/**
+	 * Event raised when the chat server sends a notification to the current logged-in user.
+	 */
+	public static final EventType<UserNotificationEvent> USER_NOTIFICATION = new EventType<>(UserNotificationEvent.class);
+
+	/**
+	 * Event raised when the current logged-in user is invited to another room.
+	 */
+	public static final EventType<InvitationEvent> INVITATION = new EventType<>(InvitationEvent.class);
+
+	/**
+	 * Event raised when a message is moved out of the room.
+	 */
+	public static final EventType<MessageMovedOutEvent> MESSAGE_MOVED_OUT = new EventType<>(MessageMovedOutEvent.class);
+
+	/**
+	 * Event raised when a message is moved into the room.
+	 */
+	public static final EventType<MessageMovedInEvent> MESSAGE_MOVED_IN = new EventType<>(MessageMovedInEvent.class);
+
+	/**
+	 * Event raised when a time break is inserted in the transcript of the room.
+	 */
+	public static final EventType<TimeBreakEvent> TIME_BREAK = new EventType<>(TimeBreakEvent.class);
+
+	/**
+	 * Event raised when a new item is added to the ticker of the feeds of the room.
+	 */
+	public static final EventType<FeedTickerEvent> FEED_TICKER = new EventType<>(FeedTickerEvent.class);
+
+	/**
+	 * Event raised when a user is suspended from chat.
+	 */
+	public static final EventType<UserSuspendedEvent> USER_SUSPENDED = new EventType<>(UserSuspendedEvent.class);
+
+	/**
+	 * Event raised when two users are merged.
+	 */
+	public static final EventType<UserMergedEvent> USER_MERGED = new EventType<>(UserMergedEvent.class);
+
+	/**
+	 * Event raised when a user changes their display name or their avatar.
+	 */
+	public static final EventType<UserNameOrAvatarChangedEvent> USER_NAME_OR_AVATAR_CHANGED = new EventType<>(UserNameOrAvatarChangedEvent.class);
+
+	/**
+	 * Event raised for all the events sent by the chat server that cannot be interpreted, for example because their code is unknown.
+	 * <p>Refer to {@link UnknownEvent#getRawData()} to access the data sent by the chat server.
+	 */
+	public static final EventType<UnknownEvent> UNKNOWN = new EventType<>(UnknownEvent.class);
+
+	private final int ordinal;
+	private final String name;
+
 	@SuppressWarnings("unchecked")
 	private EventType(Class<T> clazz) {
 		LOOKUP.put((Class<Object>) clazz, (EventType<Object>) this);
+		ordinal = count++;
+		name = clazz.getSimpleName().replaceFirst("Event$", "").replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase(Locale.ROOT);
+	}
+
+	/**
+	 * Returns the name of this event type, which is the name of its constant (example: <code>MESSAGE_POSTED</code>).
+	 * @return Name of this event type.
+	 */
+	public String name() {
+		return name;
+	}
+
+	/**
+	 * Returns the ordinal of this event type. Ordinals are dense: they range from 0 to {@link #count()} excluded, and can be used
+	 * as index into arrays holding a value per event type.
+	 * @return Ordinal of this event type.
+	 */
+	public int ordinal() {
+		return ordinal;
+	}
+
+	/**
+	 * Returns the number of event types.
+	 * @return Number of event types.
+	 */
+	public static int count() {
+		return count;
 	}
 
 	public static EventType<Object> fromEvent(Event event) {
 		return LOOKUP.get(event.getClass());
 	}
 
+	@Override
+	public String toString() {
+		return name;
+	}
+
 }
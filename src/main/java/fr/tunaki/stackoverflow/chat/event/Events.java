@@ -1,12 +1,12 @@
 package fr.tunaki.stackoverflow.chat.event;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -20,40 +20,77 @@ import fr.tunaki.stackoverflow.chat.Room;
  */
 public final class Events {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(Events.class);
+
 	private Events() { }
 
 	/**
 	 * Transforms the raw chat events to a list of event instances, with their corresponding data.
+	 * <p>Every event sent by the chat server results in an event instance: events whose code is unknown, or whose data cannot
+	 * be interpreted, are returned as {@link UnknownEvent}. Events scoped to another room than the given room are discarded.
 	 * @param events Raw chat events, as returned the the StackExchange chat websockets.
 	 * @param room Room to return events from.
 	 * @return List of events with their data.
 	 */
 	public static List<Event> fromJsonData(JsonArray events, Room room) {
+		List<JsonObject> objects = new ArrayList<>(events.size());
+		boolean userLeft = false, accessLevelChanged = false;
+		for (JsonElement element : events) {
+			JsonObject object = element.getAsJsonObject();
+			int eventType = getEventType(object);
+			userLeft |= eventType == StackExchangeEventType.USER_LEFT.getCode();
+			accessLevelChanged |= eventType == StackExchangeEventType.ACCESS_LEVEL_CHANGED.getCode();
+			objects.add(object);
+		}
 		//kicked?
-		if (events.size() == 2 && jsonObjects(events).anyMatch(o -> getEventType(o) == 4) && jsonObjects(events).anyMatch(o -> getEventType(o) == 15)) {
+		if (objects.size() == 2 && userLeft && accessLevelChanged) {
 			return new ArrayList<>(Arrays.asList(new KickedEvent(events, room)));
 		}
-		// TODO: handle Feeds (user_id = -2)
-		return jsonObjects(events)
-				.filter(object -> (!object.has("user_id") || object.get("user_id").getAsLong() > 0) && object.get("room_id").getAsInt() == room.getRoomId())
-				.map(object -> {
-					switch (getEventType(object)) {
-					case 1: return new MessagePostedEvent(object, room);
-					case 2: return new MessageEditedEvent(object, room);
-					case 3: return new UserEnteredEvent(object, room);
-					case 4: return new UserLeftEvent(object, room);
-					case 6: return new MessageStarredEvent(object, room);
-					case 10: return new MessageDeletedEvent(object, room);
-					case 8: return new UserMentionedEvent(object, room);
-					case 18: return new MessageReplyEvent(object, room);
-					default:
-						return null;
-					}
-				}).filter(Objects::nonNull).collect(Collectors.toList());
+		List<Event> result = new ArrayList<>(objects.size());
+		for (JsonObject object : objects) {
+			StackExchangeEventType type = StackExchangeEventType.fromCode(getEventType(object));
+			if ((type == null || type.isRoomScoped()) && object.has("room_id") && object.get("room_id").getAsInt() != room.getRoomId()) {
+				continue;
+			}
+			result.add(fromJsonObject(type, object, room));
+		}
+		return result;
 	}
 
-	private static Stream<JsonObject> jsonObjects(JsonArray array) {
-		return StreamSupport.stream(array.spliterator(), false).map(JsonElement::getAsJsonObject);
+	/**
+	 * Creates the event raised when the presence of a user in the given room changed.
+	 * @param room Room in which the presence of the user changed.
+	 * @param userId Id of the user.
+	 * @param present Whether the user is now present in the room.
+	 * @param instant Instant of the change.
+	 * @param lastSeen Last time the user was seen in the room before the change, or <code>null</code> if it is unknown.
+	 * @return Event raised for the change.
+	 */
+	public static Event presenceChanged(Room room, long userId, boolean present, Instant instant, Instant lastSeen) {
+		JsonObject object = new JsonObject();
+		object.addProperty("time_stamp", instant.getEpochSecond());
+		object.addProperty("user_id", userId);
+		object.addProperty("room_id", room.getRoomId());
+		return new UserPresenceChangedEvent(object, room, present, lastSeen);
+	}
+
+	private static Event fromJsonObject(StackExchangeEventType type, JsonObject object, Room room) {
+		if (type != null) {
+			try {
+				return type.create(object, room);
+			} catch (RuntimeException e) {
+				LOGGER.warn("Cannot interpret event {} of type {} in room {}, raising it as an unknown event", object, type, room.getRoomId(), e);
+			}
+		}
+		return new UnknownEvent(object, room);
+	}
+
+	/**
+	 * Tells whether the given event was raised by a system user, like a feed.
+	 */
+	static boolean isSystemUser(JsonElement event) {
+		JsonElement userId = event.getAsJsonObject().get("user_id");
+		return userId != null && userId.getAsLong() < 0;
 	}
 
 	private static int getEventType(JsonObject object) {
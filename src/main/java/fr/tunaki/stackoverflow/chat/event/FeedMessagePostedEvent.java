@@ -0,0 +1,17 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Holds the data for a message posted by a feed. Feeds are system users, having a strictly negative id.
+ * @author Tunaki
+ */
+public class FeedMessagePostedEvent extends MessageEvent {
+
+	FeedMessagePostedEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+	}
+
+}
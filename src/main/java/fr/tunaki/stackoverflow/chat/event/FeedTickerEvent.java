@@ -0,0 +1,30 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents a new item in the ticker of the feeds of the chat room.
+ * @author Tunaki
+ */
+public class FeedTickerEvent extends Event {
+
+	private String content;
+
+	FeedTickerEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+		JsonObject jsonObject = jsonElement.getAsJsonObject();
+		content = orDefault(jsonObject.get("content"), null, JsonElement::getAsString);
+	}
+
+	/**
+	 * Returns the content of the ticker item, as sent by the chat server.
+	 * @return Content of the ticker item.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+}
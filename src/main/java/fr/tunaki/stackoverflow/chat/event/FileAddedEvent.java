@@ -0,0 +1,30 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents the event where a file was added to the chat room.
+ * @author Tunaki
+ */
+public class FileAddedEvent extends Event {
+
+	private String content;
+
+	FileAddedEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+		JsonObject jsonObject = jsonElement.getAsJsonObject();
+		content = orDefault(jsonObject.get("content"), null, JsonElement::getAsString);
+	}
+
+	/**
+	 * Returns the content of this event, as sent by the chat server.
+	 * @return Content of this event.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+}
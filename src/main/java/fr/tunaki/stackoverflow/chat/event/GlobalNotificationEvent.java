@@ -0,0 +1,30 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents a notification sent by the chat server to all the users, regardless of the room they are in.
+ * @author Tunaki
+ */
+public class GlobalNotificationEvent extends Event {
+
+	private String content;
+
+	GlobalNotificationEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+		JsonObject jsonObject = jsonElement.getAsJsonObject();
+		content = orDefault(jsonObject.get("content"), null, JsonElement::getAsString);
+	}
+
+	/**
+	 * Returns the content of the notification.
+	 * @return Content of the notification.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+}
@@ -0,0 +1,41 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents the event where the current logged-in user was invited to a chat room by another user. The user that raised this
+ * event is the one who sent the invitation.
+ * @author Tunaki
+ */
+public class InvitationEvent extends Event {
+
+	private int invitedRoomId;
+	private String invitedRoomName;
+
+	InvitationEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+		JsonObject jsonObject = jsonElement.getAsJsonObject();
+		invitedRoomId = orDefault(jsonObject.get("room_id"), 0, JsonElement::getAsInt);
+		invitedRoomName = orDefault(jsonObject.get("room_name"), null, JsonElement::getAsString);
+	}
+
+	/**
+	 * Returns the id of the room the current logged-in user was invited to.
+	 * @return Id of the room the user was invited to.
+	 */
+	public int getInvitedRoomId() {
+		return invitedRoomId;
+	}
+
+	/**
+	 * Returns the name of the room the current logged-in user was invited to.
+	 * @return Name of the room the user was invited to.
+	 */
+	public String getInvitedRoomName() {
+		return invitedRoomName;
+	}
+
+}
@@ -1,5 +1,10 @@
 package fr.tunaki.stackoverflow.chat.event;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.jsoup.parser.Parser;
+
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
@@ -10,25 +15,94 @@ import fr.tunaki.stackoverflow.chat.Room;
  * Represents an event that is the result of an action being performed on a message. This is the base class for all messages type
  * events, like posting, editing, replying, etc.
  * <p>The content of the message sent by the chat event is HTML encoded: this class will unescape the HTML entities.
+ * <p>The id and the content of the message are directly available from the event. The full {@link Message} is only fetched the first
+ * time it is requested, through {@link #getMessage()} or {@link #getMessageAsync()}.
  * @author Tunaki
  */
 public abstract class MessageEvent extends Event {
 
-	private Message message;
+	private long messageId;
+	private String content;
+	private int starCount;
+	private boolean pinned;
+	private int editCount;
+	private CompletableFuture<Message> message;
 
 	MessageEvent(JsonElement jsonElement, Room room) {
 		super(jsonElement, room);
 		JsonObject jsonObject = jsonElement.getAsJsonObject();
-		message = getRoom().getMessage(jsonObject.get("message_id").getAsLong());
+		messageId = jsonObject.get("message_id").getAsLong();
+		content = orDefault(jsonObject.get("content"), null, e -> Parser.unescapeEntities(e.getAsString(), false));
+		starCount = orDefault(jsonObject.get("message_stars"), 0, JsonElement::getAsInt);
+		pinned = orDefault(jsonObject.get("message_owner_stars"), 0, JsonElement::getAsInt) > 0;
+		editCount = orDefault(jsonObject.get("message_edits"), 0, JsonElement::getAsInt);
+	}
+
+	/**
+	 * Returns the id of the message that triggered this event.
+	 * @return Id of the message.
+	 */
+	public long getMessageId() {
+		return messageId;
+	}
+
+	/**
+	 * Returns the rendered HTML content of the message that triggered this event, as it was sent with the event. This corresponds to
+	 * {@link Message#getContent()} at the time the event was raised, without requiring the message to be fetched.
+	 * <p>This will be <code>null</code> when the event didn't carry any content, like for deleted messages.
+	 * @return Content of the message.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+	/**
+	 * Returns the number of stars the message had when this event was raised, as it was sent with the event.
+	 * @return Number of stars of the message.
+	 * @see Message#getStarCount()
+	 */
+	public int getStarCount() {
+		return starCount;
 	}
 
 	/**
-	 * Returns the message that triggered this event, at the time the event was raised.
-	 * <p>The returned message will not be updated with regards to, e.g, stars or edits that were made after this event.
-	 * If an updated message is needed, refer to {@link Room#getMessage(long)}.
+	 * Tells whether the message was pinned when this event was raised, as it was sent with the event.
+	 * @return Was the message pinned?
+	 * @see Message#isPinned()
+	 */
+	public boolean isPinned() {
+		return pinned;
+	}
+
+	/**
+	 * Returns the number of times the message was edited when this event was raised, as it was sent with the event.
+	 * @return Number of times the message was edited.
+	 * @see Message#getEditCount()
+	 */
+	public int getEditCount() {
+		return editCount;
+	}
+
+	/**
+	 * Returns the message that triggered this event.
+	 * <p>The message is fetched the first time this method, or {@link #getMessageAsync()}, is called; this call blocks until it is retrieved.
+	 * The returned message will not be updated afterwards with regards to, e.g, stars or edits. If an updated message is needed,
+	 * refer to {@link Room#getMessage(long)}.
 	 * @return Message.
 	 */
 	public Message getMessage() {
+		return join(getMessageAsync());
+	}
+
+	/**
+	 * Retrieves asynchronously the message that triggered this event. The message is only fetched once, on the first call to this
+	 * method or to {@link #getMessage()}.
+	 * @return A future holding the message.
+	 */
+	public synchronized CompletionStage<Message> getMessageAsync() {
+		if (message == null) {
+			message = getRoom().getMessageAsync(messageId).toCompletableFuture();
+		}
 		return message;
 	}
 
@@ -0,0 +1,17 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents the event where a message of the chat room was flagged.
+ * @author Tunaki
+ */
+public class MessageFlaggedEvent extends MessageEvent {
+
+	MessageFlaggedEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+	}
+
+}
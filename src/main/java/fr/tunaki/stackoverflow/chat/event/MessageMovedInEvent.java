@@ -0,0 +1,17 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents the event where a message was moved into the chat room, from another room.
+ * @author Tunaki
+ */
+public class MessageMovedInEvent extends MessageEvent {
+
+	MessageMovedInEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+	}
+
+}
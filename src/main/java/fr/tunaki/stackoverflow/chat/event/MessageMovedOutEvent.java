@@ -0,0 +1,17 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents the event where a message was moved out of the chat room, to another room.
+ * @author Tunaki
+ */
+public class MessageMovedOutEvent extends MessageEvent {
+
+	MessageMovedOutEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+	}
+
+}
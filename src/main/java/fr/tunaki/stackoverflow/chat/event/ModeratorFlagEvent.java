@@ -0,0 +1,30 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents a moderator flag raised in the chat room. This event is only sent to moderators.
+ * @author Tunaki
+ */
+public class ModeratorFlagEvent extends Event {
+
+	private String content;
+
+	ModeratorFlagEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+		JsonObject jsonObject = jsonElement.getAsJsonObject();
+		content = orDefault(jsonObject.get("content"), null, JsonElement::getAsString);
+	}
+
+	/**
+	 * Returns the content of this event, as sent by the chat server.
+	 * @return Content of this event.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+}
@@ -0,0 +1,30 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents the event where the name or the description of the chat room was changed.
+ * @author Tunaki
+ */
+public class RoomNameChangedEvent extends Event {
+
+	private String content;
+
+	RoomNameChangedEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+		JsonObject jsonObject = jsonElement.getAsJsonObject();
+		content = orDefault(jsonObject.get("content"), null, JsonElement::getAsString);
+	}
+
+	/**
+	 * Returns the content of this event, which holds the new name and description of the room, as sent by the chat server.
+	 * @return Content of this event.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+}
@@ -1,41 +1,97 @@
 package fr.tunaki.stackoverflow.chat.event;
 
+import java.util.function.BiFunction;
+
+import com.google.gson.JsonElement;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Codes of the events sent by the chat server, along with the factory creating the corresponding {@link Event}.
+ * <p>Most events are scoped to the room they were raised in: those are only raised in that room. The others, like notifications
+ * and invitations, target the current logged-in user regardless of the room.
+ * @author Tunaki
+ */
 enum StackExchangeEventType {
 
-    MESSAGE_POSTED(1),
-    MESSAGE_EDITED(2),
-    USER_ENTERED(3),
-    USER_LEFT(4),
-    ROOM_NAME_CHANGED(5),
-    MESSAGE_STARRED(6),
-    DEBUG_MESSAGE(7),
-    USER_MENTIONED(8),
-    MESSAGE_FLAGGED(9),
-    MESSAGE_DELETED(10),
-    FILE_ADDED(11),
-    MODERATOR_FLAG(12),
-    USER_SETTINGS_CHANGED(13),
-    GLOBAL_NOTIFICATION(14),
-    ACCESS_LEVEL_CHANGED(15),
-    USER_NOTIFICATION(16),
-    INVITATION(17),
-    MESSAGE_REPLY(18),
-    MESSAGE_MOVED_OUT(19),
-    MESSAGE_MOVED_IN(20),
-    TIME_BREAK(21),
-    FEED_TICKER(22),
-    USER_SUSPENDED(29),
-    USER_MERGED(30),
-    USER_NAME_OR_AVATAR_CHANGED(34);
+    MESSAGE_POSTED(1, true, (json, room) -> Events.isSystemUser(json) ? new FeedMessagePostedEvent(json, room) : new MessagePostedEvent(json, room)),
+    MESSAGE_EDITED(2, true, MessageEditedEvent::new),
+    USER_ENTERED(3, true, UserEnteredEvent::new),
+    USER_LEFT(4, true, UserLeftEvent::new),
+    ROOM_NAME_CHANGED(5, true, RoomNameChangedEvent::new),
+    MESSAGE_STARRED(6, true, MessageStarredEvent::new),
+    DEBUG_MESSAGE(7, false, DebugMessageEvent::new),
+    USER_MENTIONED(8, true, UserMentionedEvent::new),
+    MESSAGE_FLAGGED(9, true, MessageFlaggedEvent::new),
+    MESSAGE_DELETED(10, true, MessageDeletedEvent::new),
+    FILE_ADDED(11, true, FileAddedEvent::new),
+    MODERATOR_FLAG(12, false, ModeratorFlagEvent::new),
+    USER_SETTINGS_CHANGED(13, false, UserSettingsChangedEvent::new),
+    GLOBAL_NOTIFICATION(14, false, GlobalNotificationEvent::new),
+    ACCESS_LEVEL_CHANGED(15, true, AccessLevelChangedEvent::new),
+    USER_NOTIFICATION(16, false, UserNotificationEvent::new),
+    INVITATION(17, false, InvitationEvent::new),
+    MESSAGE_REPLY(18, true, MessageReplyEvent::new),
+    MESSAGE_MOVED_OUT(19, true, MessageMovedOutEvent::new),
+    MESSAGE_MOVED_IN(20, true, MessageMovedInEvent::new),
+    TIME_BREAK(21, true, TimeBreakEvent::new),
+    FEED_TICKER(22, true, FeedTickerEvent::new),
+    USER_SUSPENDED(29, false, UserSuspendedEvent::new),
+    USER_MERGED(30, false, UserMergedEvent::new),
+    USER_NAME_OR_AVATAR_CHANGED(34, false, UserNameOrAvatarChangedEvent::new);
+
+	private static final StackExchangeEventType[] BY_CODE;
+
+	static {
+		int maxCode = 0;
+		for (StackExchangeEventType type : values()) {
+			maxCode = Math.max(maxCode, type.code);
+		}
+		BY_CODE = new StackExchangeEventType[maxCode + 1];
+		for (StackExchangeEventType type : values()) {
+			BY_CODE[type.code] = type;
+		}
+	}
 
 	private final int code;
+	private final boolean roomScoped;
+	private final BiFunction<JsonElement, Room, Event> factory;
 
-	private StackExchangeEventType(int code) {
+	private StackExchangeEventType(int code, boolean roomScoped, BiFunction<JsonElement, Room, Event> factory) {
 		this.code = code;
+		this.roomScoped = roomScoped;
+		this.factory = factory;
 	}
 
 	public int getCode() {
 		return code;
 	}
 
+	/**
+	 * Tells whether events of this type are scoped to the room they were raised in.
+	 * @return Whether events of this type are scoped to a room.
+	 */
+	boolean isRoomScoped() {
+		return roomScoped;
+	}
+
+	/**
+	 * Creates the event of this type holding the given data.
+	 * @param jsonElement Raw data of the event.
+	 * @param room Room the event was received in.
+	 * @return Event created.
+	 */
+	Event create(JsonElement jsonElement, Room room) {
+		return factory.apply(jsonElement, room);
+	}
+
+	/**
+	 * Returns the type having the given code.
+	 * @param code Code of the event.
+	 * @return Type having the given code, or <code>null</code> if the code is unknown.
+	 */
+	static StackExchangeEventType fromCode(int code) {
+		return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+	}
+
 }
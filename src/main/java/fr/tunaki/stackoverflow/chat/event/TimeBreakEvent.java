@@ -0,0 +1,17 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents a time break in the transcript of the chat room, sent when no message was posted for a while.
+ * @author Tunaki
+ */
+public class TimeBreakEvent extends Event {
+
+	TimeBreakEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+	}
+
+}
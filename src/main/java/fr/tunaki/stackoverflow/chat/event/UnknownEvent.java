@@ -0,0 +1,41 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents an event that this library doesn't know how to interpret, either because its code is unknown or because its data
+ * doesn't have the expected form. Such events are raised nonetheless, so that none is lost, and give access to the raw data
+ * sent by the chat server.
+ * @author Tunaki
+ */
+public class UnknownEvent extends Event {
+
+	private int eventCode;
+	private JsonObject rawData;
+
+	UnknownEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+		rawData = jsonElement.getAsJsonObject();
+		eventCode = orDefault(rawData.get("event_type"), 0, JsonElement::getAsInt);
+	}
+
+	/**
+	 * Returns the code of this event, as sent by the chat server in its <code>event_type</code> member.
+	 * @return Code of this event.
+	 */
+	public int getEventCode() {
+		return eventCode;
+	}
+
+	/**
+	 * Returns the raw data of this event, as sent by the chat server. The returned object must not be modified.
+	 * @return Raw data of this event.
+	 */
+	public JsonObject getRawData() {
+		return rawData;
+	}
+
+}
@@ -0,0 +1,30 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents the event where two chat users were merged into one.
+ * @author Tunaki
+ */
+public class UserMergedEvent extends Event {
+
+	private long targetUserId;
+
+	UserMergedEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+		JsonObject jsonObject = jsonElement.getAsJsonObject();
+		targetUserId = orDefault(jsonObject.get("target_user_id"), 0, JsonElement::getAsLong);
+	}
+
+	/**
+	 * Returns the id of the user that was merged into the user that raised this event.
+	 * @return Id of the user that was merged.
+	 */
+	public long getTargetUserId() {
+		return targetUserId;
+	}
+
+}
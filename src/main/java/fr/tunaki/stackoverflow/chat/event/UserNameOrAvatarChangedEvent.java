@@ -0,0 +1,17 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents the event where a user changed their display name or their avatar.
+ * @author Tunaki
+ */
+public class UserNameOrAvatarChangedEvent extends Event {
+
+	UserNameOrAvatarChangedEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+	}
+
+}
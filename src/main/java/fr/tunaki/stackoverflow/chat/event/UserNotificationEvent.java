@@ -0,0 +1,30 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents a notification sent by the chat server to the current logged-in user.
+ * @author Tunaki
+ */
+public class UserNotificationEvent extends Event {
+
+	private String content;
+
+	UserNotificationEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+		JsonObject jsonObject = jsonElement.getAsJsonObject();
+		content = orDefault(jsonObject.get("content"), null, JsonElement::getAsString);
+	}
+
+	/**
+	 * Returns the content of the notification.
+	 * @return Content of the notification.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+}
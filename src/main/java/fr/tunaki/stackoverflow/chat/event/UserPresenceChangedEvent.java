@@ -0,0 +1,44 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import com.google.gson.JsonElement;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents the event where a user started or stopped being present in the chat room, as tracked by the room.
+ * <p>Contrary to the other events, this event is not sent by the chat server: it is raised by the room when a user enters or leaves it,
+ * and when the users present in the room are synchronized again, for example after the connection to the chat server was lost.
+ * @author Tunaki
+ */
+public class UserPresenceChangedEvent extends Event {
+
+	private boolean present;
+	private Instant lastSeen;
+
+	UserPresenceChangedEvent(JsonElement jsonElement, Room room, boolean present, Instant lastSeen) {
+		super(jsonElement, room);
+		this.present = present;
+		this.lastSeen = lastSeen;
+	}
+
+	/**
+	 * Returns whether the user is now present in the room.
+	 * @return Whether the user is now present in the room.
+	 */
+	public boolean isPresent() {
+		return present;
+	}
+
+	/**
+	 * Returns the last time the user was seen in the room before this change: when the user left, this is the instant of this event; when
+	 * the user entered, this is the last time they left the room, if it is known.
+	 * @return Last time the user was seen in the room.
+	 */
+	public Optional<Instant> getLastSeen() {
+		return Optional.ofNullable(lastSeen);
+	}
+
+}
@@ -0,0 +1,17 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents the event where the current logged-in user changed their chat settings.
+ * @author Tunaki
+ */
+public class UserSettingsChangedEvent extends Event {
+
+	UserSettingsChangedEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+	}
+
+}
@@ -0,0 +1,30 @@
+package fr.tunaki.stackoverflow.chat.event;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import fr.tunaki.stackoverflow.chat.Room;
+
+/**
+ * Represents the event where a user was suspended from chat.
+ * @author Tunaki
+ */
+public class UserSuspendedEvent extends Event {
+
+	private long targetUserId;
+
+	UserSuspendedEvent(JsonElement jsonElement, Room room) {
+		super(jsonElement, room);
+		JsonObject jsonObject = jsonElement.getAsJsonObject();
+		targetUserId = orDefault(jsonObject.get("target_user_id"), 0, JsonElement::getAsLong);
+	}
+
+	/**
+	 * Returns the id of the user that was suspended.
+	 * @return Id of the user that was suspended.
+	 */
+	public long getTargetUserId() {
+		return targetUserId;
+	}
+
+}
@@ -0,0 +1,716 @@
+package fr.tunaki.stackoverflow.chat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local server simulating the Stack Exchange chat, so that the library can be exercised and benchmarked offline.
+ * <p>A single HTTP server answers the requests made to the OpenID provider, to the sites and to the chat servers of all the chat hosts:
+ * a {@link StackExchangeClient} created with {@link #getEndpoints()} logs in with any credentials, and can join any room. Messages
+ * sent, edited, deleted and starred are kept in memory, raised as chat events on the WebSocket, and can be read back through the
+ * history and the message pages. Any user id is a valid user.
+ * <p>Throttling can be injected with {@link #setThrottling(double, int)}, and recorded traffic can be pushed on the WebSocket at a
+ * given rate with {@link #replay(List, double)} or {@link #replayJournal(Path, int, double)}.
+ * <p>The simulator can also be run on its own, the first argument being the port of the HTTP server:
+ * <code>java -cp target/benchmarks.jar fr.tunaki.stackoverflow.chat.ChatServerSimulator 8080</code>.
+ * @author Tunaki
+ */
+public final class ChatServerSimulator implements AutoCloseable {
+
+	private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	private static final DateTimeFormatter MESSAGE_TIME_FORMATTER = DateTimeFormatter.ofPattern("h:mm a").withZone(ZoneOffset.UTC);
+	private static final int RETAINED_EVENTS = 10_000;
+	private static final Pattern ROOM_PATTERN = Pattern.compile("/rooms/(\\d+)");
+	private static final Pattern PINGABLE_PATTERN = Pattern.compile("/rooms/pingable/(\\d+)");
+	private static final Pattern THUMBS_PATTERN = Pattern.compile("/rooms/thumbs/(\\d+)");
+	private static final Pattern EVENTS_PATTERN = Pattern.compile("/chats/(\\d+)/events");
+	private static final Pattern NEW_MESSAGE_PATTERN = Pattern.compile("/chats/(\\d+)/messages/new");
+	private static final Pattern LEAVE_PATTERN = Pattern.compile("/chats/leave/(\\d+)");
+	private static final Pattern MESSAGE_ACTION_PATTERN = Pattern.compile("/messages/(\\d+)(/delete|/star|/owner-star)?");
+	private static final Pattern HISTORY_PATTERN = Pattern.compile("/messages/(\\d+)/history");
+	private static final Pattern MESSAGE_PATTERN = Pattern.compile("/message/(\\d+)");
+
+	static {
+		// without it, the JDK HTTP server waits for delayed acknowledgements, adding tens of milliseconds to each response
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private final HttpServer httpServer;
+	private final ServerSocket webSocketServer;
+	private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "chat-server-simulator");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final String baseUrl;
+
+	private final AtomicInteger siteLogins = new AtomicInteger();
+	private final AtomicLong nextMessageId = new AtomicLong(1);
+	private final AtomicLong nextEventId = new AtomicLong(1);
+	private final Map<Long, SimulatedMessage> messages = new ConcurrentHashMap<>();
+	private final Map<Integer, NavigableMap<Long, SimulatedMessage>> roomMessages = new ConcurrentHashMap<>();
+	private final Map<Integer, NavigableMap<Long, JsonObject>> roomEvents = new ConcurrentHashMap<>();
+	private final Map<Integer, long[]> currentUsers = new ConcurrentHashMap<>();
+	private final List<WebSocketConnection> connections = new CopyOnWriteArrayList<>();
+
+	private volatile long userId = 1;
+	private volatile double throttleProbability;
+	private volatile int throttleSeconds = 1;
+
+	/**
+	 * Starts the simulator on ephemeral ports of the loopback interface.
+	 * @throws IOException if the servers cannot be started.
+	 */
+	public ChatServerSimulator() throws IOException {
+		this(0);
+	}
+
+	/**
+	 * Starts the simulator, its HTTP server listening on the given port of the loopback interface.
+	 * @param port Port of the HTTP server, or <code>0</code> for an ephemeral port.
+	 * @throws IOException if the servers cannot be started.
+	 */
+	public ChatServerSimulator(int port) throws IOException {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		httpServer = HttpServer.create(new InetSocketAddress(loopback, port), 0);
+		httpServer.createContext("/", this::handle);
+		httpServer.setExecutor(executor);
+		webSocketServer = new ServerSocket(0, 50, loopback);
+		baseUrl = "http://" + loopback.getHostAddress() + ":" + httpServer.getAddress().getPort();
+		httpServer.start();
+		executor.execute(this::acceptWebSockets);
+	}
+
+	public static void main(String[] args) throws IOException {
+		ChatServerSimulator simulator = new ChatServerSimulator(args.length > 0 ? Integer.parseInt(args[0]) : 8080);
+		System.out.println("Chat server simulator listening on " + simulator.getBaseUrl());
+	}
+
+	/**
+	 * @return The base URL of the simulator.
+	 */
+	public String getBaseUrl() {
+		return baseUrl;
+	}
+
+	/**
+	 * @return The endpoints to give to a {@link StackExchangeClient} so that it connects to the simulator.
+	 */
+	public ChatEndpoints getEndpoints() {
+		return ChatEndpoints.of(baseUrl);
+	}
+
+	/**
+	 * Sets the id of the user posting the messages sent to the simulator. It is <code>1</code> by default.
+	 * @param userId Id of the logged-in user.
+	 */
+	public void setUserId(long userId) {
+		this.userId = userId;
+	}
+
+	/**
+	 * Sets the users present in the given room. Only the logged-in user is present by default.
+	 * @param roomId Id of the room.
+	 * @param userIds Ids of the present users.
+	 */
+	public void setCurrentUsers(int roomId, long... userIds) {
+		currentUsers.put(roomId, userIds.clone());
+	}
+
+	/**
+	 * Makes the simulator throttle the given fraction of the actions (sending, editing, deleting and starring messages), answering
+	 * that they can be performed again in the given number of seconds.
+	 * @param probability Probability that an action is throttled, between <code>0</code> and <code>1</code>.
+	 * @param seconds Time before a throttled action can be performed again, in seconds.
+	 */
+	public void setThrottling(double probability, int seconds) {
+		this.throttleProbability = probability;
+		this.throttleSeconds = seconds;
+	}
+
+	/**
+	 * Returns the number of logins to the chat hosts so far.
+	 * @return Number of site logins.
+	 */
+	public int getSiteLoginCount() {
+		return siteLogins.get();
+	}
+
+	/**
+	 * Returns the number of WebSocket connections currently open.
+	 * @return Number of open WebSocket connections.
+	 */
+	public int getWebSocketConnectionCount() {
+		return connections.size();
+	}
+
+	/**
+	 * Posts a message in the given room, as if the given user posted it, raising the corresponding chat event.
+	 * @param roomId Id of the room.
+	 * @param userId Id of the user posting the message.
+	 * @param text Content of the message.
+	 * @return Id of the message.
+	 */
+	public long postMessage(int roomId, long userId, String text) {
+		SimulatedMessage message = new SimulatedMessage(nextMessageId.getAndIncrement(), roomId, userId, text, Instant.now().getEpochSecond());
+		messages.put(message.id, message);
+		roomMessages.computeIfAbsent(roomId, id -> new ConcurrentSkipListMap<>()).put(message.id, message);
+		raise(message, 1);
+		return message.id;
+	}
+
+	/**
+	 * Sends the given raw frame to all the open WebSocket connections.
+	 * @param frame Frame, as sent by the chat server.
+	 */
+	public void emit(String frame) {
+		for (WebSocketConnection connection : connections) {
+			connection.sendText(frame);
+		}
+	}
+
+	/**
+	 * Closes all the open WebSocket connections, as if the server dropped them. The events raised until the clients reconnect are only
+	 * available through the events endpoint.
+	 */
+	public void disconnect() {
+		for (WebSocketConnection connection : connections) {
+			connections.remove(connection);
+			connection.sendClose();
+			connection.close();
+		}
+	}
+
+	/**
+	 * Sends the given raw frames to all the open WebSocket connections, in order, at the given rate. This method blocks until all the
+	 * frames are sent.
+	 * @param frames Frames, as sent by the chat server.
+	 * @param framesPerSecond Rate at which frames are sent, or <code>0</code> to send them as fast as possible.
+	 */
+	public void replay(List<String> frames, double framesPerSecond) {
+		long intervalNanos = framesPerSecond <= 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / framesPerSecond);
+		long next = System.nanoTime();
+		for (String frame : frames) {
+			if (intervalNanos > 0) {
+				long wait;
+				while ((wait = next - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(wait);
+				}
+				next += intervalNanos;
+			}
+			emit(frame);
+		}
+	}
+
+	/**
+	 * Sends the events recorded by a room in the given event journal (see {@link Room#enableEventJournal(Path)}) to all the open
+	 * WebSocket connections, as events of the given room, one frame per frame received when recording. This method blocks until all the
+	 * frames are sent.
+	 * @param journal Directory of the event journal.
+	 * @param roomId Id of the room the events are sent for.
+	 * @param framesPerSecond Rate at which frames are sent, or <code>0</code> to send them as fast as possible.
+	 * @throws IOException if the journal cannot be read.
+	 */
+	public void replayJournal(Path journal, int roomId, double framesPerSecond) throws IOException {
+		List<String> frames = new ArrayList<>();
+		try (EventJournal eventJournal = new EventJournal(journal)) {
+			eventJournal.replay(false, Long.MIN_VALUE, Long.MAX_VALUE, events -> {
+				for (int i = 0; i < events.size(); i++) {
+					events.get(i).getAsJsonObject().addProperty("room_id", roomId);
+				}
+				frames.add(frame(roomId, events));
+			});
+		}
+		replay(frames, framesPerSecond);
+	}
+
+	/**
+	 * Stops the simulator, closing all the WebSocket connections.
+	 */
+	@Override
+	public void close() {
+		httpServer.stop(0);
+		try {
+			webSocketServer.close();
+		} catch (IOException e) {
+			// already closed
+		}
+		connections.forEach(WebSocketConnection::close);
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			Map<String, String> parameters = parameters(exchange);
+			String path = exchange.getRequestURI().getPath();
+			boolean post = "POST".equals(exchange.getRequestMethod());
+			Matcher matcher;
+			if (path.equals("/account/login") || path.equals("/users/login")) {
+				respond(exchange, 200, "<html><body><form><input name=\"fkey\" value=\"simulated\"></form></body></html>");
+			} else if (path.equals("/account/login/submit")) {
+				respond(exchange, 200, "<html><body><div id=\"delegate\"><a href=\"" + baseUrl + "/user/" + userId + "\">OpenID</a></div></body></html>");
+			} else if (path.equals("/users/authenticate")) {
+				siteLogins.incrementAndGet();
+				respond(exchange, 200, "<html><body>Logged in</body></html>");
+			} else if (path.equals("/users/current")) {
+				respond(exchange, 200, "<html><body><div class=\"js-inbox-button\"></div></body></html>");
+			} else if (path.equals("/ws-auth")) {
+				respond(exchange, 200, json("url", new JsonPrimitive("ws://" + webSocketServer.getInetAddress().getHostAddress() + ":" + webSocketServer.getLocalPort() + "/events")));
+			} else if (path.equals("/user/info")) {
+				respond(exchange, 200, userInfo(parameters.get("ids")));
+			} else if ((matcher = PINGABLE_PATTERN.matcher(path)).matches()) {
+				JsonArray users = new JsonArray();
+				for (long id : currentUsers(Integer.parseInt(matcher.group(1)))) {
+					JsonArray user = new JsonArray();
+					user.add(id);
+					user.add("user" + id);
+					users.add(user);
+				}
+				respond(exchange, 200, users.toString());
+			} else if ((matcher = THUMBS_PATTERN.matcher(path)).matches()) {
+				JsonObject thumbs = new JsonObject();
+				thumbs.addProperty("id", Integer.parseInt(matcher.group(1)));
+				thumbs.addProperty("name", "Room " + matcher.group(1));
+				thumbs.addProperty("description", "Simulated room");
+				thumbs.addProperty("isFavorite", false);
+				thumbs.addProperty("tags", "<a>simulated</a>");
+				respond(exchange, 200, thumbs.toString());
+			} else if ((matcher = ROOM_PATTERN.matcher(path)).matches()) {
+				respond(exchange, 200, roomPage(Integer.parseInt(matcher.group(1))));
+			} else if ((matcher = EVENTS_PATTERN.matcher(path)).matches() && post) {
+				respond(exchange, 200, events(Integer.parseInt(matcher.group(1)), parameters));
+			} else if ((matcher = NEW_MESSAGE_PATTERN.matcher(path)).matches() && post) {
+				if (!throttled(exchange)) {
+					long id = postMessage(Integer.parseInt(matcher.group(1)), userId, parameters.get("text"));
+					JsonObject result = new JsonObject();
+					result.addProperty("id", id);
+					result.addProperty("time", Instant.now().getEpochSecond());
+					respond(exchange, 200, result.toString());
+				}
+			} else if ((matcher = LEAVE_PATTERN.matcher(path)).matches() && post) {
+				respond(exchange, 200, "\"ok\"");
+			} else if ((matcher = HISTORY_PATTERN.matcher(path)).matches()) {
+				SimulatedMessage message = messages.get(Long.parseLong(matcher.group(1)));
+				if (message == null) respond(exchange, 404, "Not found");
+				else respond(exchange, 200, historyPage(message));
+			} else if ((matcher = MESSAGE_PATTERN.matcher(path)).matches()) {
+				SimulatedMessage message = messages.get(Long.parseLong(matcher.group(1)));
+				if (message == null) respond(exchange, 404, "Not found");
+				else respond(exchange, 200, "true".equals(parameters.get("plain")) ? message.text : message.content());
+			} else if ((matcher = MESSAGE_ACTION_PATTERN.matcher(path)).matches() && post) {
+				if (!throttled(exchange)) {
+					respond(exchange, 200, messageAction(Long.parseLong(matcher.group(1)), matcher.group(2), parameters.get("text")));
+				}
+			} else {
+				respond(exchange, 404, "Not found");
+			}
+		} catch (RuntimeException e) {
+			respond(exchange, 500, String.valueOf(e));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private boolean throttled(HttpExchange exchange) throws IOException {
+		if (ThreadLocalRandom.current().nextDouble() >= throttleProbability) return false;
+		respond(exchange, 409, "You can perform this action again in " + throttleSeconds + " seconds.");
+		return true;
+	}
+
+	private String messageAction(long messageId, String action, String text) {
+		SimulatedMessage message = messages.get(messageId);
+		if (message == null) return "\"This message has been deleted and cannot be edited\"";
+		if (action == null) {
+			message.text = text;
+			message.edits++;
+			raise(message, 2);
+		} else if (action.equals("/delete")) {
+			message.deleted = true;
+			raise(message, 10);
+		} else {
+			if (action.equals("/owner-star")) message.pinned = !message.pinned;
+			else message.stars++;
+			raise(message, 6);
+		}
+		return "\"ok\"";
+	}
+
+	private void raise(SimulatedMessage message, int eventType) {
+		JsonObject event = new JsonObject();
+		event.addProperty("event_type", eventType);
+		event.addProperty("time_stamp", Instant.now().getEpochSecond());
+		if (eventType != 10) event.addProperty("content", message.content());
+		event.addProperty("id", nextEventId.getAndIncrement());
+		event.addProperty("user_id", message.userId);
+		event.addProperty("user_name", "user" + message.userId);
+		event.addProperty("room_id", message.roomId);
+		event.addProperty("room_name", "Room " + message.roomId);
+		event.addProperty("message_id", message.id);
+		if (message.edits > 0) event.addProperty("message_edits", message.edits);
+		if (message.stars > 0) event.addProperty("message_stars", message.stars);
+		if (message.pinned) event.addProperty("message_owner_stars", 1);
+		NavigableMap<Long, JsonObject> events = roomEvents.computeIfAbsent(message.roomId, id -> new ConcurrentSkipListMap<>());
+		events.put(event.get("id").getAsLong(), event);
+		while (events.size() > RETAINED_EVENTS) {
+			events.pollFirstEntry();
+		}
+		JsonArray array = new JsonArray();
+		array.add(event);
+		emit(frame(message.roomId, array));
+	}
+
+	private static String frame(int roomId, JsonArray events) {
+		JsonObject room = new JsonObject();
+		room.add("e", events);
+		room.addProperty("t", events.size() == 0 ? 0 : events.get(events.size() - 1).getAsJsonObject().get("id").getAsLong());
+		room.addProperty("d", events.size());
+		return json("r" + roomId, room);
+	}
+
+	private String events(int roomId, Map<String, String> parameters) {
+		int count = Integer.parseInt(parameters.getOrDefault("msgCount", "100"));
+		JsonArray events = new JsonArray();
+		if ("Messages".equals(parameters.get("mode"))) {
+			NavigableMap<Long, SimulatedMessage> all = roomMessages.getOrDefault(roomId, new ConcurrentSkipListMap<>());
+			NavigableMap<Long, SimulatedMessage> before = parameters.containsKey("before") ? all.headMap(Long.parseLong(parameters.get("before")), false) : all;
+			List<SimulatedMessage> page = new ArrayList<>();
+			for (SimulatedMessage message : before.descendingMap().values()) {
+				if (page.size() == count) break;
+				page.add(0, message);
+			}
+			for (SimulatedMessage message : page) {
+				JsonObject event = new JsonObject();
+				event.addProperty("event_type", 1);
+				event.addProperty("time_stamp", message.timestamp);
+				if (!message.deleted) event.addProperty("content", message.content()); // deleted messages come without their content
+				event.addProperty("user_id", message.userId);
+				event.addProperty("user_name", "user" + message.userId);
+				event.addProperty("room_id", roomId);
+				event.addProperty("message_id", message.id);
+				events.add(event);
+			}
+		} else if (parameters.containsKey("since")) {
+			NavigableMap<Long, JsonObject> all = roomEvents.getOrDefault(roomId, new ConcurrentSkipListMap<>());
+			all.tailMap(Long.parseLong(parameters.get("since")), false).values().stream().limit(count).forEach(events::add);
+		}
+		JsonObject result = new JsonObject();
+		result.addProperty("ms", 0);
+		result.addProperty("time", nextEventId.get() - 1);
+		result.addProperty("sync", Instant.now().getEpochSecond());
+		result.add("events", events);
+		return result.toString();
+	}
+
+	private String userInfo(String ids) {
+		JsonArray users = new JsonArray();
+		if (ids != null) {
+			for (String id : ids.split(",")) {
+				if (id.isEmpty()) continue;
+				JsonObject user = new JsonObject();
+				user.addProperty("id", Long.parseLong(id));
+				user.addProperty("name", "user" + id);
+				user.addProperty("reputation", 1);
+				user.addProperty("is_moderator", false);
+				user.addProperty("is_owner", false);
+				user.addProperty("last_post", Instant.now().getEpochSecond());
+				user.addProperty("last_seen", Instant.now().getEpochSecond());
+				users.add(user);
+			}
+		}
+		return json("users", users);
+	}
+
+	private String roomPage(int roomId) {
+		StringBuilder users = new StringBuilder();
+		for (long id : currentUsers(roomId)) {
+			users.append("{id: ").append(id).append(", name: \"user").append(id).append("\"},");
+		}
+		return "<html><head><script></script><script></script><script></script><script>CHAT.RoomUsers.initPresent([" + users + "]);</script></head>"
+			+ "<body><input id=\"fkey\" name=\"fkey\" type=\"hidden\" value=\"simulated\"></body></html>";
+	}
+
+	private String historyPage(SimulatedMessage message) {
+		String time = MESSAGE_TIME_FORMATTER.format(Instant.ofEpochSecond(message.timestamp));
+		StringBuilder html = new StringBuilder("<html><body><div id=\"content\"><div class=\"messages\">");
+		html.append("<div class=\"username\"><a href=\"/users/").append(message.userId).append("/user").append(message.userId).append("\">user").append(message.userId).append("</a></div>");
+		html.append("<div class=\"message\"><div class=\"timestamp\">").append(time).append("</div><div class=\"content\">").append(message.content()).append("</div></div>");
+		if (message.stars > 0 || message.pinned) {
+			html.append("<div class=\"flash\"><span class=\"stars vote-count-container").append(message.pinned ? " owner-star" : "").append("\"><span class=\"times\">").append(message.stars).append("</span></span></div>");
+		}
+		for (int i = 0; i <= message.edits; i++) {
+			html.append("<div class=\"message\"><div class=\"timestamp\">").append(time).append("</div><div class=\"content\">");
+			if (i == 0 && message.deleted) html.append("<b>deleted</b>");
+			html.append("<div class=\"message-source\">").append(escape(message.text)).append("</div></div></div>");
+		}
+		return html.append("</div></div></body></html>").toString();
+	}
+
+	private long[] currentUsers(int roomId) {
+		return currentUsers.getOrDefault(roomId, new long[] { userId });
+	}
+
+	private static String json(String name, JsonElement value) {
+		JsonObject object = new JsonObject();
+		object.add(name, value);
+		return object.toString();
+	}
+
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+		Map<String, String> parameters = new HashMap<>();
+		parse(exchange.getRequestURI().getRawQuery(), parameters);
+		parse(new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8), parameters);
+		return parameters;
+	}
+
+	private static void parse(String encoded, Map<String, String> parameters) throws IOException {
+		if (encoded == null || encoded.isEmpty()) return;
+		for (String pair : encoded.split("&")) {
+			int equals = pair.indexOf('=');
+			if (equals < 0) continue;
+			parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+		}
+	}
+
+	private static byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = is.read(buffer)) > 0) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", body.startsWith("<") ? "text/html; charset=utf-8" : "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+	private void acceptWebSockets() {
+		while (!webSocketServer.isClosed()) {
+			Socket socket;
+			try {
+				socket = webSocketServer.accept();
+			} catch (IOException e) {
+				return; // closed
+			}
+			executor.execute(() -> {
+				WebSocketConnection connection = new WebSocketConnection(socket);
+				try {
+					connection.handshake(() -> connections.add(connection));
+					connection.readFrames();
+				} catch (IOException e) {
+					// the client went away
+				} finally {
+					connections.remove(connection);
+					connection.close();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Server side of a WebSocket connection (RFC 6455), limited to what the chat server does: sending text frames, answering pings and
+	 * closing.
+	 */
+	private static final class WebSocketConnection {
+
+		private final Socket socket;
+		private OutputStream out;
+
+		WebSocketConnection(Socket socket) {
+			this.socket = socket;
+		}
+
+		/**
+		 * Answers the handshake of the client.
+		 * @param accepted Called once the connection is accepted, before the client is answered: the frames sent meanwhile wait for the
+		 * answer, so that a client that just connected never misses them.
+		 */
+		void handshake(Runnable accepted) throws IOException {
+			InputStream in = socket.getInputStream();
+			String key = null;
+			String line;
+			while (!(line = readLine(in)).isEmpty()) {
+				int colon = line.indexOf(':');
+				if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+					key = line.substring(colon + 1).trim();
+				}
+			}
+			if (key == null) throw new IOException("Not a WebSocket handshake");
+			String accept;
+			try {
+				accept = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1").digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII)));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+			out = socket.getOutputStream();
+			synchronized (this) {
+				accepted.run();
+				out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+				out.flush();
+			}
+		}
+
+		void readFrames() throws IOException {
+			InputStream in = socket.getInputStream();
+			while (true) {
+				int first = in.read(), second = in.read();
+				if (first < 0 || second < 0) return;
+				int opcode = first & 0x0F;
+				long length = second & 0x7F;
+				if (length == 126) {
+					length = (read(in) << 8) | read(in);
+				} else if (length == 127) {
+					length = 0;
+					for (int i = 0; i < 8; i++) length = (length << 8) | read(in);
+				}
+				byte[] mask = new byte[4];
+				if ((second & 0x80) != 0) {
+					for (int i = 0; i < 4; i++) mask[i] = (byte) read(in);
+				}
+				byte[] payload = new byte[(int) length];
+				for (int i = 0; i < payload.length; i++) {
+					payload[i] = (byte) (read(in) ^ mask[i % 4]);
+				}
+				if (opcode == 0x8) { // close
+					send(0x8, payload);
+					return;
+				} else if (opcode == 0x9) { // ping
+					send(0xA, payload);
+				}
+			}
+		}
+
+		void sendText(String text) {
+			try {
+				send(0x1, text.getBytes(StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		void sendClose() {
+			try {
+				send(0x8, new byte[0]);
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+
+		private synchronized void send(int opcode, byte[] payload) throws IOException {
+			if (out == null) return;
+			out.write(0x80 | opcode);
+			if (payload.length < 126) {
+				out.write(payload.length);
+			} else if (payload.length < 65536) {
+				out.write(126);
+				out.write(payload.length >>> 8);
+				out.write(payload.length);
+			} else {
+				out.write(127);
+				for (int shift = 56; shift >= 0; shift -= 8) out.write((int) ((long) payload.length >>> shift));
+			}
+			out.write(payload);
+			out.flush();
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+
+		private static int read(InputStream in) throws IOException {
+			int b = in.read();
+			if (b < 0) throw new IOException("Connection closed");
+			return b;
+		}
+
+		private static String readLine(InputStream in) throws IOException {
+			StringBuilder line = new StringBuilder();
+			int b;
+			while ((b = read(in)) != '\n') {
+				if (b != '\r') line.append((char) b);
+			}
+			return line.toString();
+		}
+
+	}
+
+	private static final class SimulatedMessage {
+
+		private final long id;
+		private final int roomId;
+		private final long userId;
+		private final long timestamp;
+		private volatile String text;
+		private volatile int edits, stars;
+		private volatile boolean pinned, deleted;
+
+		SimulatedMessage(long id, int roomId, long userId, String text, long timestamp) {
+			this.id = id;
+			this.roomId = roomId;
+			this.userId = userId;
+			this.text = text;
+			this.timestamp = timestamp;
+		}
+
+		String content() {
+			return escape(text);
+		}
+
+	}
+
+}
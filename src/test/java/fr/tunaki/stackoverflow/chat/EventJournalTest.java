@@ -0,0 +1,91 @@
+package fr.tunaki.stackoverflow.chat;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+public class EventJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static JsonArray frame(long... ids) {
+		JsonArray frame = new JsonArray();
+		for (long id : ids) {
+			JsonObject event = new JsonObject();
+			event.addProperty("event_type", 1);
+			event.addProperty("id", id);
+			event.addProperty("time_stamp", 1_000 + id * 10);
+			event.addProperty("content", "message " + id);
+			frame.add(event);
+		}
+		return frame;
+	}
+
+	private static List<List<Long>> replay(EventJournal journal, boolean byTimestamp, long from, long to) throws IOException {
+		List<List<Long>> frames = new ArrayList<>();
+		journal.replay(byTimestamp, from, to, events -> {
+			List<Long> ids = new ArrayList<>();
+			for (JsonElement event : events) {
+				ids.add(event.getAsJsonObject().get("id").getAsLong());
+			}
+			frames.add(ids);
+		});
+		return frames;
+	}
+
+	@Test
+	public void replaysByIdAndByTimestamp() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (EventJournal journal = new EventJournal(directory)) {
+			journal.append(frame(1, 2, 3));
+			journal.append(frame(4));
+			journal.append(frame(5, 6));
+			assertEquals(Arrays.asList(Arrays.asList(1L, 2L, 3L), Arrays.asList(4L), Arrays.asList(5L, 6L)), replay(journal, false, 0, Long.MAX_VALUE));
+			assertEquals(Arrays.asList(Arrays.asList(2L, 3L), Arrays.asList(4L), Arrays.asList(5L)), replay(journal, false, 2, 5));
+			assertEquals(Arrays.asList(Arrays.asList(3L), Arrays.asList(4L)), replay(journal, true, 1_025, 1_040));
+			assertEquals(0, journal.replay(false, 7, 10, events -> { }));
+		}
+	}
+
+	@Test
+	public void reindexesTheRecordsWrittenAfterTheIndex() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (EventJournal journal = new EventJournal(directory)) {
+			journal.append(frame(1, 2));
+			journal.append(frame(3, 4, 5));
+		}
+		// the process stopped after writing the records, but before indexing the last three
+		List<Path> indexes = Files.list(directory).filter(p -> p.toString().endsWith(".index")).collect(Collectors.toList());
+		assertEquals(1, indexes.size());
+		try (FileChannel index = FileChannel.open(indexes.get(0), StandardOpenOption.WRITE)) {
+			index.truncate(2 * (8 + 8 + 4));
+		}
+
+		try (EventJournal journal = new EventJournal(directory)) {
+			assertEquals(Arrays.asList(Arrays.asList(1L, 2L), Arrays.asList(3L, 4L, 5L)), replay(journal, false, 0, Long.MAX_VALUE));
+			journal.append(frame(6));
+			assertEquals(Arrays.asList(Arrays.asList(4L, 5L), Arrays.asList(6L)), replay(journal, true, 1_040, 1_060));
+		}
+		try (EventJournal journal = new EventJournal(directory)) {
+			assertEquals(6, journal.replay(false, 0, Long.MAX_VALUE, events -> { }));
+		}
+	}
+
+}
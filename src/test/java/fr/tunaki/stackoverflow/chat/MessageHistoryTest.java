@@ -0,0 +1,114 @@
+package fr.tunaki.stackoverflow.chat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MessageHistoryTest {
+
+	private static final int PAGE_SIZE = 100;
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the ids of a history whose density varies, with long runs of missing ids.
+	 */
+	private static NavigableSet<Long> history(long seed, int size) {
+		Random random = new Random(seed);
+		NavigableSet<Long> ids = new TreeSet<>();
+		long id = 1 + random.nextInt(10);
+		while (ids.size() < size) {
+			ids.add(id);
+			id += random.nextInt(20) == 0 ? 1 + random.nextInt(5_000) : 1 + random.nextInt(random.nextBoolean() ? 2 : 50);
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the page of the entries before the given id, like the chat server: the entries that are not messages take their place
+	 * in the page, but are left out.
+	 */
+	private CompletableFuture<MessageHistory.Page> page(NavigableSet<Long> ids, Set<Long> otherEntries, long before) {
+		return CompletableFuture.supplyAsync(() -> {
+			NavigableSet<Long> older = before == 0 ? ids : ids.headSet(before, false);
+			List<Message> page = new ArrayList<>(PAGE_SIZE);
+			int entries = 0;
+			for (Long id : older.descendingSet()) {
+				if (entries == PAGE_SIZE) break;
+				entries++;
+				if (!otherEntries.contains(id)) page.add(Message.deleted(id));
+			}
+			Collections.reverse(page);
+			return new MessageHistory.Page(page, entries < PAGE_SIZE);
+		}, executor);
+	}
+
+	private List<Long> iterate(NavigableSet<Long> ids, long before, int prefetch) {
+		return iterate(ids, Collections.emptySet(), before, prefetch);
+	}
+
+	private List<Long> iterate(NavigableSet<Long> ids, Set<Long> otherEntries, long before, int prefetch) {
+		MessageHistory history = new MessageHistory(b -> page(ids, otherEntries, b), before, PAGE_SIZE, prefetch);
+		List<Long> result = new ArrayList<>();
+		while (history.hasNext()) {
+			result.add(history.next().getId());
+		}
+		assertFalse(history.hasNext());
+		return result;
+	}
+
+	@Test
+	public void iteratesOverEveryMessageOnce() {
+		for (long seed = 0; seed < 20; seed++) {
+			NavigableSet<Long> ids = history(seed, 2_000 + (int) seed * 100);
+			for (int prefetch : new int[] { 1, 4, 16 }) {
+				assertEquals("seed " + seed + ", prefetch " + prefetch, new ArrayList<>(ids.descendingSet()), iterate(ids, 0, prefetch));
+			}
+		}
+	}
+
+	@Test
+	public void startsBeforeTheGivenMessage() {
+		NavigableSet<Long> ids = history(42, 3_000);
+		long before = ids.stream().skip(1_234).findFirst().get();
+		assertEquals(ids.headSet(before, false).descendingSet().stream().collect(Collectors.toList()), iterate(ids, before, 4));
+	}
+
+	@Test
+	public void iteratesPastThePagesHoldingOtherEntries() {
+		NavigableSet<Long> ids = history(42, 3_000);
+		Set<Long> otherEntries = ids.stream().filter(id -> id % 3 == 0).collect(Collectors.toSet());
+		List<Long> messages = ids.descendingSet().stream().filter(id -> !otherEntries.contains(id)).collect(Collectors.toList());
+		for (int prefetch : new int[] { 1, 4 }) {
+			assertEquals(messages, iterate(ids, otherEntries, 0, prefetch));
+		}
+	}
+
+	@Test
+	public void iteratesOverShortHistories() {
+		for (int size = 1; size <= 2 * PAGE_SIZE + 1; size += PAGE_SIZE / 2) {
+			NavigableSet<Long> ids = history(size, size);
+			assertEquals(new ArrayList<>(ids.descendingSet()), iterate(ids, 0, 4));
+		}
+	}
+
+}
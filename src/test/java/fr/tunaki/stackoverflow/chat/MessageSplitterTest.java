@@ -0,0 +1,100 @@
+package fr.tunaki.stackoverflow.chat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class MessageSplitterTest {
+
+	private static final int MAX_CHAT_MESSAGE_LENGTH = 500;
+	private static final Pattern MARKDOWN_LINK_PATTERN = Pattern.compile("\\[(\\\\]|[^\\]])+\\]\\((https?:)?//(\\\\\\)|\\\\\\(|[^\\s)(])+\\)");
+
+	/**
+	 * The former <code>Room.toParts</code>, which rescanned the remaining text for links at each part.
+	 */
+	private static List<String> legacyToParts(String message, int maxPartLength) {
+		if (message.length() <= maxPartLength || (message.trim().contains("\n") && !message.trim().endsWith("\n"))) {
+			return Arrays.asList(message);
+		}
+		List<String> messages = new ArrayList<>();
+		while (message.length() > maxPartLength) {
+			List<Integer[]> nonBreakingIndexes = new ArrayList<>();
+			Matcher matcher = MARKDOWN_LINK_PATTERN.matcher(message);
+			while (matcher.find()) {
+				nonBreakingIndexes.add(new Integer[] { matcher.start(), matcher.end() });
+			}
+			int breakIndex = message.lastIndexOf(' ', maxPartLength);
+			if (breakIndex < 0) breakIndex = maxPartLength;
+			for (Integer[] bounds : nonBreakingIndexes) {
+				if (bounds[0] < breakIndex && breakIndex < bounds[1]) {
+					breakIndex = bounds[0] - 1;
+					break;
+				}
+			}
+			if (breakIndex < 0) {
+				throw new ChatOperationException("Cannot send message: it is longer than " + maxPartLength + " characters and cannot be broken into adequate parts");
+			}
+			messages.add(message.substring(0, breakIndex));
+			message = message.substring(breakIndex + 1);
+		}
+		if (!message.isEmpty()) {
+			messages.add(message);
+		}
+		return messages;
+	}
+
+	private static String message(Random random, int size, boolean code) {
+		StringBuilder sb = new StringBuilder(size + 64);
+		while (sb.length() < size) {
+			switch (random.nextInt(12)) {
+			case 0: sb.append("[build #").append(random.nextInt(10_000)).append("](https://ci.example.com/builds/").append(random.nextInt(10_000)).append(") "); break;
+			case 1: if (code) sb.append("`at fr.tunaki.Example.method(Example.java:").append(random.nextInt(500)).append(")` "); break;
+			default: sb.append("token").append(random.nextInt(1000)).append(' ');
+			}
+		}
+		return sb.toString().trim();
+	}
+
+	@Test
+	public void splitsLikeTheLegacySplitter() {
+		Random random = new Random(42);
+		for (int i = 0; i < 200; i++) {
+			String message = message(random, 100 + random.nextInt(5_000), false);
+			assertEquals(message, legacyToParts(message, MAX_CHAT_MESSAGE_LENGTH), MessageSplitter.split(message, MAX_CHAT_MESSAGE_LENGTH));
+		}
+	}
+
+	@Test
+	public void neverBreaksInsideInlineCode() {
+		Random random = new Random(42);
+		for (int i = 0; i < 200; i++) {
+			String message = message(random, 100 + random.nextInt(5_000), true);
+			for (String part : MessageSplitter.split(message, MAX_CHAT_MESSAGE_LENGTH)) {
+				assertTrue(part, part.length() <= MAX_CHAT_MESSAGE_LENGTH);
+				assertEquals(part, 0, part.chars().filter(c -> c == '`').count() % 2);
+			}
+		}
+	}
+
+	@Test
+	public void keepsMultiLineMessagesWhole() {
+		String message = String.join("\n", message(new Random(42), 400, false), message(new Random(43), 400, false));
+		assertEquals(Arrays.asList(message), MessageSplitter.split(message, MAX_CHAT_MESSAGE_LENGTH));
+	}
+
+	@Test(expected = ChatOperationException.class)
+	public void rejectsTooLongLinks() {
+		StringBuilder url = new StringBuilder("[link](https://example.com/");
+		for (int i = 0; i < MAX_CHAT_MESSAGE_LENGTH; i++) url.append('a');
+		MessageSplitter.split(url.append(')').toString(), MAX_CHAT_MESSAGE_LENGTH);
+	}
+
+}
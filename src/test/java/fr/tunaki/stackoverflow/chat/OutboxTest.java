@@ -0,0 +1,135 @@
+package fr.tunaki.stackoverflow.chat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OutboxTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ScheduledExecutorService scheduler;
+	private Path file;
+
+	@Before
+	public void setUp() {
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		file = folder.getRoot().toPath().resolve("outbox");
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test(timeout = 10_000)
+	public void replaysTheActionsPendingAtTheCrash() throws Exception {
+		Outbox outbox = new Outbox(file, scheduler);
+		outbox.submit(new Outbox.Action("delivered", "send", 0, "first"), (action, durable) -> durable.thenApply(v -> 1L)).get();
+		CompletableFuture<Void> recorded = new CompletableFuture<>();
+		outbox.submit(new Outbox.Action("pending", "edit", 1, "second"), (action, durable) -> {
+			durable.thenRun(() -> recorded.complete(null));
+			return new CompletableFuture<>();
+		});
+		recorded.get();
+		// the process stops without closing the outbox, in the middle of writing a record
+		Files.write(file, "{\"type\":\"send\",\"key\":\"trunc".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		Outbox reopened = new Outbox(file, scheduler);
+		List<Outbox.Action> pending = reopened.pending();
+		assertEquals(1, pending.size());
+		Outbox.Action action = pending.get(0);
+		assertEquals("pending", action.getKey());
+		assertEquals("edit", action.getType());
+		assertEquals(1, action.getMessageId());
+		assertEquals("second", action.getText());
+
+		AtomicInteger deliveries = new AtomicInteger();
+		assertEquals(Long.valueOf(1), reopened.submit(new Outbox.Action("delivered", "send", 0, "first"), (a, durable) -> {
+			deliveries.incrementAndGet();
+			return durable.thenApply(v -> 2L);
+		}).get());
+		assertEquals(Long.valueOf(3), reopened.submit(action, (a, durable) -> {
+			deliveries.incrementAndGet();
+			return durable.thenApply(v -> 3L);
+		}).get());
+		assertEquals("only the pending action is delivered again", 1, deliveries.get());
+		reopened.close();
+		assertTrue(new Outbox(file, scheduler).pending().isEmpty());
+	}
+
+	@Test(timeout = 30_000)
+	public void compactsTheJournal() throws Exception {
+		Outbox outbox = new Outbox(file, scheduler);
+		List<CompletableFuture<Long>> results = new ArrayList<>();
+		for (int i = 0; i < 1_500; i++) {
+			long id = i;
+			results.add(outbox.submit(new Outbox.Action("key" + i, "send", 0, "message " + i), (action, durable) -> durable.thenApply(v -> id)));
+		}
+		CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()])).get();
+		CompletableFuture<Void> recorded = new CompletableFuture<>();
+		outbox.submit(new Outbox.Action("pending", "send", 0, "last"), (action, durable) -> {
+			durable.thenRun(() -> recorded.complete(null));
+			return new CompletableFuture<>();
+		});
+		recorded.get();
+
+		// without compaction, the journal would hold the 1 501 actions and the 1 500 outcomes
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		assertTrue("the journal holds " + lines.size() + " records", lines.size() < 3_001);
+
+		Outbox reopened = new Outbox(file, scheduler);
+		assertEquals(1, reopened.pending().size());
+		assertEquals("pending", reopened.pending().get(0).getKey());
+		// the most recent outcomes survive the compaction
+		assertEquals(Long.valueOf(1_499), reopened.submit(new Outbox.Action("key1499", "send", 0, "message 1499"), (action, durable) -> durable.thenApply(v -> -1L)).get(5, TimeUnit.SECONDS));
+		reopened.close();
+		assertEquals(Arrays.asList("pending"), new Outbox(file, scheduler).pending().stream().map(Outbox.Action::getKey).collect(Collectors.toList()));
+	}
+
+	@Test(timeout = 10_000)
+	public void recordsBecomeDurableInOrder() throws Exception {
+		ScheduledExecutorService pool = Executors.newScheduledThreadPool(4);
+		try {
+			Outbox outbox = new Outbox(file, pool);
+			List<Integer> durableOrder = new CopyOnWriteArrayList<>();
+			List<CompletableFuture<Long>> results = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				int index = i;
+				results.add(outbox.submit(new Outbox.Action("key" + i, "send", 0, "message " + i), (action, durable) -> durable.thenApply(v -> {
+					durableOrder.add(index);
+					return (long) index;
+				})));
+				if (i % 10 == 0) Thread.sleep(3);
+			}
+			CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()])).get();
+			assertEquals(IntStream.range(0, 200).boxed().collect(Collectors.toList()), durableOrder);
+			outbox.close();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+package fr.tunaki.stackoverflow.chat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PresenceSetTest {
+
+	private final List<Long> entered = new ArrayList<>(), left = new ArrayList<>();
+
+	private void replace(PresenceSet presence, long seconds, long... userIds) {
+		entered.clear();
+		left.clear();
+		presence.replace(userIds, seconds, entered::add, left::add);
+	}
+
+	@Test
+	public void replaceReportsTheDifferences() {
+		PresenceSet presence = new PresenceSet();
+		replace(presence, 100, 5, 1, 3, 3);
+		assertEquals(Arrays.asList(1L, 3L, 5L), entered);
+		assertEquals(Arrays.asList(), left);
+		assertArrayEquals(new long[] { 1, 3, 5 }, presence.toArray());
+
+		replace(presence, 200, 3, 4, 0);
+		assertEquals(Arrays.asList(0L, 4L), entered);
+		assertEquals(Arrays.asList(1L, 5L), left);
+		assertArrayEquals(new long[] { 0, 3, 4 }, presence.toArray());
+		assertTrue(presence.contains(0));
+		assertFalse(presence.contains(1));
+		assertEquals(200, presence.lastSeen(1));
+		assertEquals(200, presence.lastSeen(5));
+		assertEquals(-1, presence.lastSeen(2));
+
+		replace(presence, 300, 3, 4, 0);
+		assertEquals(Arrays.asList(), entered);
+		assertEquals(Arrays.asList(), left);
+
+		replace(presence, 400);
+		assertEquals(Arrays.asList(), entered);
+		assertEquals(Arrays.asList(0L, 3L, 4L), left);
+		assertArrayEquals(new long[0], presence.toArray());
+	}
+
+	@Test
+	public void addAndRemoveTrackTheLastSeenTime() {
+		PresenceSet presence = new PresenceSet();
+		assertTrue(presence.add(7));
+		assertFalse(presence.add(7));
+		assertTrue(presence.remove(7, 50));
+		assertFalse(presence.remove(7, 60));
+		assertEquals(50, presence.lastSeen(7));
+		replace(presence, 100, 7);
+		assertEquals(Arrays.asList(7L), entered);
+		assertTrue(presence.contains(7));
+	}
+
+}
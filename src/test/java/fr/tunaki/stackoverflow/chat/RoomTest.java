@@ -0,0 +1,249 @@
+package fr.tunaki.stackoverflow.chat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fr.tunaki.stackoverflow.chat.event.EventType;
+
+public class RoomTest {
+
+	private static final int ROOM_ID = 1;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ChatServerSimulator simulator;
+	private PooledHttpClient httpClient;
+	private StackExchangeClient client;
+
+	@Before
+	public void setUp() throws IOException {
+		simulator = new ChatServerSimulator();
+		httpClient = new PooledHttpClient();
+	}
+
+	@After
+	public void tearDown() {
+		if (client != null) client.close();
+		httpClient.close();
+		simulator.close();
+	}
+
+	@Test(timeout = 120_000)
+	public void sendsInOrderWhenThrottled() throws Exception {
+		simulator.setThrottling(0.2, 1);
+		client = new StackExchangeClient("test@example.com", "password", httpClient, simulator.getEndpoints());
+		Room room = client.joinRoom(ChatHost.STACK_OVERFLOW, ROOM_ID);
+		List<String> posted = new CopyOnWriteArrayList<>();
+		room.addEventListener(EventType.MESSAGE_POSTED, event -> posted.add(event.getContent()));
+
+		List<CompletableFuture<Long>> ids = new ArrayList<>();
+		List<String> sent = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			sent.add("message " + i);
+			ids.add(room.send("message " + i).toCompletableFuture());
+		}
+		long previous = 0;
+		for (int i = 0; i < ids.size(); i++) {
+			long id = ids.get(i).get(30, TimeUnit.SECONDS);
+			assertTrue("message " + i + " was sent out of order", id > previous);
+			assertEquals(sent.get(i), room.getMessage(id).getPlainContent());
+			previous = id;
+		}
+		while (posted.size() < sent.size()) {
+			Thread.sleep(10);
+		}
+		assertEquals(sent, posted);
+	}
+
+	@Test(timeout = 60_000)
+	public void keepsTheOrderOfTheActionsGoingThroughTheOutbox() throws Exception {
+		client = new StackExchangeClient("test@example.com", "password", httpClient, simulator.getEndpoints());
+		Room room = client.joinRoom(ChatHost.STACK_OVERFLOW, ROOM_ID);
+		room.enableOutbox(folder.getRoot().toPath().resolve("outbox"));
+		CompletableFuture<Long> first = room.send("through the outbox").toCompletableFuture();
+		CompletableFuture<List<Long>> second = room.sendAll("around the outbox", PartFailurePolicy.STOP).toCompletableFuture();
+		CompletableFuture<Long> third = room.send("through the outbox again").toCompletableFuture();
+		long firstId = first.get(30, TimeUnit.SECONDS), secondId = second.get(30, TimeUnit.SECONDS).get(0), thirdId = third.get(30, TimeUnit.SECONDS);
+		assertTrue(firstId < secondId);
+		assertTrue(secondId < thirdId);
+	}
+
+	@Test(timeout = 60_000)
+	public void listenersCanReplyWhileTheirQueueIsFull() throws Exception {
+		client = new StackExchangeClient("test@example.com", "password", httpClient, simulator.getEndpoints());
+		Room room = client.joinRoom(ChatHost.STACK_OVERFLOW, ROOM_ID);
+		List<CompletableFuture<Long>> replies = new CopyOnWriteArrayList<>();
+		room.addEventListener(EventType.MESSAGE_POSTED, event -> {
+			if (event.getUserId() != 2) return;
+			// lets the events pile up, so that the next ones wait for room in the queue while replying
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+			replies.add(room.replyTo(event.getMessageId(), "received").toCompletableFuture());
+		}, 1, OverflowPolicy.BLOCK);
+
+		for (int i = 0; i < 8; i++) {
+			simulator.postMessage(ROOM_ID, 2, "message " + i);
+		}
+		while (replies.size() < 8) {
+			Thread.sleep(10);
+		}
+		CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[replies.size()])).get(30, TimeUnit.SECONDS);
+	}
+
+	@Test(timeout = 60_000)
+	public void historyReportsTheDeletedMessages() throws Exception {
+		client = new StackExchangeClient("test@example.com", "password", httpClient, simulator.getEndpoints());
+		Room room = client.joinRoom(ChatHost.STACK_OVERFLOW, ROOM_ID);
+		long kept = room.send("kept").toCompletableFuture().get(30, TimeUnit.SECONDS);
+		long deleted = room.send("deleted").toCompletableFuture().get(30, TimeUnit.SECONDS);
+		room.delete(deleted).toCompletableFuture().get(30, TimeUnit.SECONDS);
+		List<Message> history = room.getHistory().collect(Collectors.toList());
+		assertEquals(Arrays.asList(deleted, kept), history.stream().map(Message::getId).collect(Collectors.toList()));
+		assertTrue(history.get(0).isDeleted());
+		assertNull(history.get(0).getPlainContent());
+		assertFalse(history.get(1).isDeleted());
+		assertEquals("kept", history.get(1).getPlainContent());
+	}
+
+	@Test(timeout = 60_000)
+	public void recoversTheEventsMissedWhileDisconnected() throws Exception {
+		client = new StackExchangeClient("test@example.com", "password", httpClient, simulator.getEndpoints());
+		Room room = client.joinRoom(ChatHost.STACK_OVERFLOW, ROOM_ID);
+		List<String> posted = new CopyOnWriteArrayList<>();
+		room.addEventListener(EventType.MESSAGE_POSTED, event -> posted.add(event.getContent()));
+		List<String> sent = new ArrayList<>();
+		sent.add("before");
+		simulator.postMessage(ROOM_ID, 2, "before");
+		while (posted.size() < 1) {
+			Thread.sleep(10);
+		}
+
+		simulator.disconnect();
+		// more than a page of events is missed
+		for (int i = 0; i < 250; i++) {
+			sent.add("missed " + i);
+			simulator.postMessage(ROOM_ID, 2, "missed " + i);
+		}
+		while (simulator.getWebSocketConnectionCount() == 0) {
+			Thread.sleep(10);
+		}
+		sent.add("after");
+		simulator.postMessage(ROOM_ID, 2, "after");
+		while (posted.size() < sent.size()) {
+			Thread.sleep(10);
+		}
+		assertEquals(sent, posted);
+	}
+
+	@Test(timeout = 60_000)
+	public void keepsTheEventsRaisedWhileReconnecting() throws Exception {
+		client = new StackExchangeClient("test@example.com", "password", httpClient, simulator.getEndpoints());
+		Room room = client.joinRoom(ChatHost.STACK_OVERFLOW, ROOM_ID);
+		List<String> posted = new CopyOnWriteArrayList<>();
+		room.addEventListener(EventType.MESSAGE_POSTED, event -> posted.add(event.getContent()));
+		simulator.postMessage(ROOM_ID, 2, "message 0");
+		while (posted.size() < 1) {
+			Thread.sleep(10);
+		}
+
+		simulator.disconnect();
+		// messages keep being posted while the client reconnects, fetches the missed ones, and receives the new ones
+		List<String> sent = new ArrayList<>();
+		sent.add("message 0");
+		long reconnected = 0;
+		for (int i = 1; reconnected == 0 || System.nanoTime() - reconnected < TimeUnit.MILLISECONDS.toNanos(200); i++) {
+			sent.add("message " + i);
+			simulator.postMessage(ROOM_ID, 2, "message " + i);
+			if (reconnected == 0 && simulator.getWebSocketConnectionCount() > 0) {
+				reconnected = System.nanoTime();
+			}
+			Thread.sleep(1);
+		}
+		while (posted.size() < sent.size()) {
+			Thread.sleep(10);
+		}
+		assertEquals(sent, posted);
+	}
+
+	@Test(timeout = 60_000)
+	public void replaysTheJournaledEvents() throws Exception {
+		client = new StackExchangeClient("test@example.com", "password", httpClient, simulator.getEndpoints());
+		Room room = client.joinRoom(ChatHost.STACK_OVERFLOW, ROOM_ID);
+		Path journal = folder.getRoot().toPath().resolve("journal");
+		room.enableEventJournal(journal);
+		List<String> posted = new CopyOnWriteArrayList<>();
+		room.addEventListener(EventType.MESSAGE_POSTED, event -> posted.add(event.getContent()));
+		simulator.postMessage(ROOM_ID, 2, "first");
+		while (posted.size() < 1) {
+			Thread.sleep(10);
+		}
+		// enabling the journal again closes the previous one, and appends to the same directory
+		room.enableEventJournal(journal);
+		simulator.postMessage(ROOM_ID, 2, "second");
+		while (posted.size() < 2) {
+			Thread.sleep(10);
+		}
+
+		posted.clear();
+		assertEquals(2, room.replayEvents(0, Long.MAX_VALUE));
+		while (posted.size() < 2) {
+			Thread.sleep(10);
+		}
+		assertEquals(Arrays.asList("first", "second"), posted);
+	}
+
+	@Test(timeout = 60_000)
+	public void joinsRoomsOnSeveralHosts() throws Exception {
+		client = new StackExchangeClient("test@example.com", "password", httpClient, simulator.getEndpoints());
+		Map<ChatHost, List<Integer>> roomIds = new EnumMap<>(ChatHost.class);
+		roomIds.put(ChatHost.STACK_OVERFLOW, Arrays.asList(1, 2, 3));
+		roomIds.put(ChatHost.STACK_EXCHANGE, Arrays.asList(1, 4));
+		List<Room> rooms = client.joinRooms(roomIds).toCompletableFuture().get(30, TimeUnit.SECONDS);
+		assertEquals(5, rooms.size());
+		for (Room room : rooms) {
+			assertTrue(roomIds.get(room.getHost()).contains(room.getRoomId()));
+		}
+		assertEquals(2, simulator.getWebSocketConnectionCount());
+	}
+
+	@Test(timeout = 60_000)
+	public void joinsEachRoomOnceWhenJoiningConcurrently() throws Exception {
+		client = new StackExchangeClient("test@example.com", "password", httpClient, simulator.getEndpoints());
+		CompletableFuture<List<Room>> first = client.joinRooms(ChatHost.STACK_OVERFLOW, 1, 2).toCompletableFuture();
+		CompletableFuture<List<Room>> second = client.joinRooms(ChatHost.STACK_OVERFLOW, 3, 4).toCompletableFuture();
+		try {
+			client.joinRooms(ChatHost.STACK_OVERFLOW, 4, 5);
+			fail("room 4 is being joined");
+		} catch (ChatOperationException e) {
+			// expected
+		}
+		assertEquals(2, first.get(30, TimeUnit.SECONDS).size());
+		assertEquals(2, second.get(30, TimeUnit.SECONDS).size());
+		assertEquals("the second call waits for the login of the first one", 1, simulator.getSiteLoginCount());
+		assertEquals(5, client.joinRoom(ChatHost.STACK_OVERFLOW, 5).getRoomId());
+		assertEquals(1, simulator.getSiteLoginCount());
+	}
+
+}